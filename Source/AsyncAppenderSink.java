@@ -0,0 +1,58 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AsyncAppenderSink implements EventSink, Runnable, Closeable {  //writes the console to a file or stdout on its own thread
+    final static int QUEUE_SIZE = 10000;
+    BlockingQueue<String> queue;
+    Writer writer;
+    AtomicLong dropped;     //lines dropped because the writer could not keep up
+    Thread thread;
+
+    AsyncAppenderSink(Writer writer){
+        this.writer = writer;
+        queue = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+        dropped = new AtomicLong();
+        thread = new Thread(this,"console-appender");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    public void print(String s){
+        if(!queue.offer(s))     //never block the client thread that printed
+            dropped.incrementAndGet();
+    }
+    public void run(){
+        try{
+            while(true){
+                writer.write(queue.take());
+                String s;
+                while((s = queue.poll())!=null)   //write everything queued meanwhile before flushing
+                    writer.write(s);
+                long lost = dropped.getAndSet(0);
+                if(lost>0)
+                    writer.write(lost+" console lines dropped\n");
+                writer.flush();
+            }
+        }
+        catch(InterruptedException | IOException e){
+            //appender closed
+        }
+    }
+    public void close(){
+        thread.interrupt();
+        try{
+            thread.join();          //it may be in the middle of a write, the writer is only used by one thread at a time
+            String s;
+            while((s = queue.poll())!=null)
+                writer.write(s);
+            writer.flush();
+            writer.close();
+        }
+        catch(InterruptedException | IOException e){
+            System.out.println(e);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
+
+/*
+ * mkdir, rm, mv and cp on several paths in one request : mkdir x y z, rm a/*, mv src/* dst, cp -r a b dst.
+ * Operands of rm, mv and cp with * ? [ or { are glob patterns, expanded on the server segment by segment against
+ * the names in the directories (from the NamespaceIndex when there is one), names starting with a dot only match
+ * a pattern starting with one. mv and cp of several sources, or into an existing directory, put each source
+ * inside the target. The command becomes one step per path of an UndoPlan which is applied as a whole : if a step
+ * fails the ones already done are reversed. Logger logs the steps as one batch, shown as one entry of log and
+ * undone together.
+ */
+public class Bulk {
+    final static String PATTERN = "*?[{";
+
+    String op;
+    Boolean recursive;              //cp -r
+    List<String> operands;          //relative to the working directory, as sent
+    DirectoryManager directoryManager;
+    List<String> names;             //source of each step as the client wrote it, for the response
+    String target;                  //of mv and cp
+    Map<String,PathMatcher> matchers;   //of the pattern segments of the operands, compiled by the constructor
+
+    Bulk(String[] command,DirectoryManager directoryManager){  //IllegalArgumentException with the format if it is wrong
+        this.directoryManager = directoryManager;
+        op = command[0];
+        recursive = false;
+        operands = new ArrayList<String>();
+        for(int i=1; i<command.length; i++){
+            if(op.equals("cp") && (command[i].equals("-r") || command[i].equals("-R")))
+                recursive = true;
+            else
+                operands.add(command[i]);
+        }
+        if(operands.size()<(op.equals("mv") || op.equals("cp") ? 2 : 1))
+            throw new IllegalArgumentException(format(op));
+        matchers = new HashMap<String,PathMatcher>();
+        if(op.equals("mkdir"))
+            return;
+        for(String operand : op.equals("rm") ? operands : operands.subList(0,operands.size()-1)){
+            for(String segment : operand.split("/")){
+                if(!isPattern(segment) || matchers.containsKey(segment))
+                    continue;
+                try{
+                    matchers.put(segment,FileSystems.getDefault().getPathMatcher("glob:"+segment));
+                }
+                catch(PatternSyntaxException e){                //rm "[a"
+                    throw new IllegalArgumentException(format(op)+" : "+e.getDescription()+" in "+operand);
+                }
+            }
+        }
+    }
+    static String format(String op){
+        switch(op){
+            case "mkdir": return "Invalid Format (format : mkdir nameOfDirectory...)";
+            case "rm": return "Invalid Format (format : rm nameOfDirectoryOrFile...)";
+            case "mv": return "Invalid Format (format : mv source... target)";
+            default: return "Invalid Format (format : cp [-r] source... target)";
+        }
+    }
+
+    static Boolean isPattern(String operand){
+        for(int i=0; i<operand.length(); i++){
+            if(PATTERN.indexOf(operand.charAt(i))!=-1)
+                return true;
+        }
+        return false;
+    }
+    static Boolean isBulk(String[] command){    //a form the single path commands of ServerThread don't take
+        switch(command[0]){
+            case "cp":
+                return true;
+            case "mkdir":                       //names are taken as they are
+                return command.length>2;
+            case "rm":
+                return command.length>2 || command.length==2 && isPattern(command[1]);
+            case "mv":
+                return command.length>3 || command.length==3 && isPattern(command[1]);
+            default:
+                return false;
+        }
+    }
+
+    UndoPlan plan() throws IOException{         //steps with paths relative to home, as logged
+        UndoPlan plan = new UndoPlan(directoryManager,new long[0]);
+        plan.undo = false;
+        names = new ArrayList<String>();
+        String currentDir = directoryManager.getCurrentDir();
+        switch(op){
+            case "mkdir":
+                for(String operand : new LinkedHashSet<String>(operands)){
+                    plan.add("mkdir",currentDir+operand,null);
+                    names.add(operand);
+                }
+                break;
+            case "rm":
+                for(String path : outermost(expand(operands))){
+                    plan.add("rm",currentDir+path,null);
+                    names.add(path);
+                }
+                break;
+            default:                            //mv and cp
+                target = operands.get(operands.size()-1);
+                List<String> sources = expand(operands.subList(0,operands.size()-1));
+                File targetDir = new File(directoryManager.PWD,target);
+                Boolean into = directoryManager.exists(targetDir) && targetDir.isDirectory();
+                if(!into && sources.size()>1)
+                    throw new IOException(target+" is not a directory");
+                for(String source : sources){
+                    if(UndoPlan.normalize(source).equals(UndoPlan.normalize(target)))
+                        continue;               //mv * dst, dst matches too
+                    File sourceFile = new File(directoryManager.PWD,source);
+                    if(op.equals("cp") && !recursive && sourceFile.isDirectory())
+                        throw new IOException("omitting directory "+source+" (cp -r copies directories)");
+                    plan.add(op,currentDir+source,currentDir+(into ? target+"/"+sourceFile.getName() : target));
+                    names.add(source);
+                }
+        }
+        if(plan.steps.isEmpty())
+            throw new IOException("nothing to "+op);
+        return plan;
+    }
+
+    List<String> expand(List<String> operands) throws IOException{ //each operand or what its pattern matches, in order
+        Set<String> paths = new LinkedHashSet<String>();
+        for(String operand : operands){
+            if(isPattern(operand))
+                paths.addAll(glob(operand));
+            else
+                paths.add(operand);
+        }
+        return new ArrayList<String>(paths);
+    }
+    List<String> glob(String pattern) throws IOException{  //paths below home matching pattern, sorted by name
+        List<String> found = new ArrayList<String>();
+        found.add("");
+        for(String segment : pattern.split("/")){
+            if(segment.isEmpty())
+                continue;
+            PathMatcher matcher = matchers.get(segment);
+            List<String> next = new ArrayList<String>();
+            for(String prefix : found){
+                String parent = prefix.isEmpty() ? "" : prefix+"/";
+                if(matcher==null){              //a/*/c, c has to be there in each match
+                    if(directoryManager.exists(new File(directoryManager.PWD,parent+segment)))
+                        next.add(parent+segment);
+                    continue;
+                }
+                File dir = new File(directoryManager.PWD,prefix);
+                if(!dir.isDirectory())
+                    continue;
+                String[] children = directoryManager.listContents(dir);
+                Arrays.sort(children);
+                for(String name : children){
+                    if(matcher.matches(Paths.get(name)) && (!name.startsWith(".") || segment.startsWith(".")))
+                        next.add(parent+name);
+                }
+            }
+            found = next;
+        }
+        Path home = directoryManager.home.toPath().toAbsolutePath().normalize();
+        found.removeIf(path -> {
+            Path resolved = new File(directoryManager.PWD,path).toPath().toAbsolutePath().normalize();
+            return !resolved.startsWith(home) || resolved.equals(home);
+        });
+        if(found.isEmpty())
+            throw new IOException("no match for "+pattern);
+        return found;
+    }
+    static List<String> outermost(List<String> paths){ //drops the paths inside another one of them, removed with it
+        Set<String> all = new HashSet<String>();
+        for(String path : paths)
+            all.add(UndoPlan.normalize(path));
+        List<String> kept = new ArrayList<String>();
+        for(String path : paths){
+            Boolean inside = false;
+            for(String above = UndoPlan.parent(UndoPlan.normalize(path)); !above.isEmpty() && !inside; above = UndoPlan.parent(above))
+                inside = all.contains(above);
+            if(!inside)
+                kept.add(path);
+        }
+        return kept;
+    }
+
+    String response(UndoPlan plan){             //one line for the whole command
+        int n = plan.steps.size();
+        String what = n==1 ? names.get(0)+" was" : n+(op.equals("mkdir") ? " directories were" : " entries were");
+        switch(op){
+            case "mkdir": return what+" created";
+            case "rm": return what+" removed";
+            case "mv": return what+" moved to "+target;
+            default: return what+" copied to "+target+" ("+plan.copiedDirectories+" directories, "+plan.copiedFiles+" files)";
+        }
+    }
+}
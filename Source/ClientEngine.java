@@ -0,0 +1,303 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/*
+ * Client side of a session without any GUI : connects, logs in with a username, sends commands and applies the
+ * sync_* messages of the server to the local copy of the synced directories (root/username, see DirectoryManager).
+ * Used by the Swing Client and by the simulated users of LoadGenerator.
+ * Starts in text mode, binary() switches to frames (see Frame), where every command gets a request id and its
+ * response ends with a DONE frame carrying that id.
+ */
+public class ClientEngine {
+    final static int PORT = 8080;       //Port number where our sockets will connect
+
+    /* --- Socket components --- */
+    Socket socket;
+    DataInputStream in;                 //buffered, text lines and frames are both read from it
+    OutputStream raw;                   //frames are written to it
+    PrintWriter out;                    //text lines, over raw
+    String username;
+    Boolean isConnected,binary;
+    AtomicInteger requests;             //ids of the binary requests, 0 is for updates
+    Consumer<String> console;           //messages for the user, one line each
+
+    /* --- Directory Related --- */
+    String rootDir;                     //the local copies are kept in rootDir/username
+    Boolean files;                      //also fetch the contents of synced files over a data connection
+    DirectoryManager directoryManager;  //handles all directory related operations (used in both server and client)
+    String diskLetter;                  //diskletter A/B/C/... given by the server for this connection
+    Map<String,MerkleTree> localTrees;  //local copy of each synced directory being compared with the server's after a reconnect
+    Map<String,Integer> walks;          //hashes and subtree requests of that comparison not answered yet
+    Map<String,Integer> rounds;         //comparisons started, the tree may keep changing on the server meanwhile
+    final static int MAX_ROUNDS = 3;    //then the whole tree is fetched
+    Map<String,Set<String>> listings;   //files announced since the resync of a directory, the others are removed at its sync_version
+    FileReceiver receiver;              //data connection bringing the contents of synced files, null until the server sent its port
+
+    ClientEngine(String rootDir,Consumer<String> console){
+        this.rootDir = rootDir;
+        this.console = console;
+        isConnected = false;
+        binary = false;
+        files = true;
+        requests = new AtomicInteger();
+        localTrees = new HashMap<String,MerkleTree>();
+        walks = new HashMap<String,Integer>();
+        rounds = new HashMap<String,Integer>();
+        listings = new HashMap<String,Set<String>>();
+    }
+
+    Boolean connect(InetAddress address,int port,String username) throws IOException{  //false if the username is taken
+        socket = new Socket(address,port);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        raw = new BufferedOutputStream(socket.getOutputStream());
+        out = new PrintWriter(raw);
+        out.println(username);                              //sending username over to server to check if its available
+        out.flush();                                        //need to flush the outstream to send the message immediatly
+        diskLetter = Frame.readLine(in);                    //recive diskletter A/B/C/.. from server
+        if(diskLetter==null || diskLetter.equals("")){
+            diskLetter = null;
+            socket.close();
+            return false;
+        }
+        this.username = username;
+        isConnected = true;                                 //assume client connected if non empty diskletter recived
+        binary = false;
+        //the local copy is kept between connections, by username as the letter may be another one next time
+        directoryManager = new DirectoryManager(rootDir,username);
+        return true;
+    }
+    void binary() throws IOException{                       //switches the session to frames, right after connect()
+        out.println("binary");
+        out.flush();
+        String line;
+        while((line = Frame.readLine(in))!=null && !line.equals("binary ok"))
+            console.accept(line);
+        if(line==null)
+            throw new IOException("Connection closed");
+        binary = true;
+    }
+    int restore() throws IOException{   //after connect, syncs the directories of the local copy again, returns how many
+        send("set snapshot on");                            //ask for synced trees as single compressed messages
+        send("set compress on");
+        if(files)
+            send("data");                                   //connection for the file contents, before anything is synced
+        String[] synced = directoryManager.listContents(directoryManager.home);
+        rounds.clear();
+        for(String dir : synced)                            //only what changed while disconnected is transferred
+            resync(dir);
+        return synced.length;
+    }
+
+    synchronized int send(String message){  //text line, or a frame in binary mode, returns the request id (0 in text mode)
+        if(!binary){
+            out.println(message);
+            out.flush();
+            return 0;
+        }
+        int id = requests.incrementAndGet();
+        try{
+            out.flush();
+            raw.write(Frame.of(id,Command.split(message)).encode());
+            raw.flush();
+        }
+        catch(IllegalArgumentException | IOException e){    //no opcode for the command, or the socket is closed
+            console.accept(e.getMessage());
+        }
+        return id;
+    }
+    String readLine() throws IOException{   //text mode, null at end of stream
+        return Frame.readLine(in);
+    }
+    Frame readFrame() throws IOException{   //binary mode, null at end of stream
+        return Frame.read(in);
+    }
+    void close(){                //socket.close() can throw IOExecption
+        try{
+            if(receiver!=null)                          //an unfinished file is resumed next time from its .part file
+                receiver.close();
+            receiver = null;
+            socket.close();                             //the local copy stays for the next connection
+        }
+        catch(IOException e){
+            System.out.println(e);
+        }
+        console.accept("Disconnected from server");
+        isConnected=false;                          //make connection status false initially
+    }
+
+    String process(String response){
+        //tokenize response from server, operands with spaces are quoted (see Command)
+        return process(Command.split(response),response);
+    }
+    String process(Frame frame){            //binary mode, the text of LINE and DONE frames and the messages of updates
+        if(frame.opcode==Frame.Opcode.LINE || frame.opcode==Frame.Opcode.DONE)
+            return frame.args.length==0 ? "" : frame.args[0];
+        String[] command = frame.command();
+        return process(command,Command.join(command));
+    }
+    String process(String[] command,String response){
+        String message = "";
+        //command[0] holds opertation code and subsequent cells hold operands
+        try{
+        switch(command[0]){
+            case "sync_mkdir":
+                directoryManager.createDirectory(command[1]);
+                break;
+            case "sync_rm":
+                directoryManager.deleteDirectory(command[1]);
+                break;
+            case "sync_cd":
+                directoryManager.changeDirectory(command[1]);
+                break;
+            case "sync_mv":                 //synced directory was renamed or moved on the server
+                directoryManager.moveDirectory(command[1],command[2]);
+                break;
+            case "sync_resync":             //updates were dropped because we read too slowly, compare the copy again
+                rounds.remove(command[1]);
+                resync(command[1]);
+                message = command[1]+" : resynchronizing";
+                break;
+            case "sync_hashes":             //children of a directory our copy differs on
+                compare(command);
+                break;
+            case "sync_subtree":            //directory our copy was missing or differed on, no tree if it is gone
+                File target = new File(directoryManager.home,command[1]);
+                if(target.exists())
+                    directoryManager.deleteDirectory(target);
+                if(command.length>2)
+                    message = command[1]+" : "+TreeSnapshot.materialize(command[2],target.getParentFile())+" directories synchronized";
+                answered(command[1],0);
+                break;
+            case "sync_data":               //port and token of our data connection
+                receiver = new FileReceiver(socket.getInetAddress().getHostAddress(),Integer.parseInt(command[1]),command[2],
+                                            directoryManager.home,this::send,console);
+                Thread receiving = new Thread(receiver,"file-receiver");
+                receiving.setDaemon(true);
+                receiving.start();
+                break;
+            case "sync_file":               //path size modified, fetched if our copy is another one
+                Set<String> listing = listings.get(DependencyIndex.segments(command[1])[0]);
+                if(listing!=null)
+                    listing.add(command[1]);
+                if(receiver!=null)
+                    receiver.offer(command[1],Long.parseLong(command[2]),Long.parseLong(command[3]));
+                break;
+            case "sync_rmfile":
+                if(receiver!=null)
+                    receiver.remove(command[1]);
+                else
+                    new File(directoryManager.home,command[1]).delete();
+                break;
+            case "sync_version":            //end of a delta, or of the files of a resynced directory
+                if(listings.containsKey(command[1]))
+                    removeUnlisted(command[1],listings.remove(command[1]));
+                break;
+            case "sync_snapshot":           //whole directory tree in one message
+                int count = TreeSnapshot.materialize(command[2],directoryManager.PWD);
+                message = command[1]+" : "+count+" directories synchronized";
+                break;
+            case "quit":
+                close();
+                message = "closing connection";
+                break;
+            default:
+                message = response;
+        }
+        }
+        catch(IOException e){
+            System.out.println(e);
+        }
+        return message;
+    }
+
+    void resync(String dir) throws IOException{     //sends the root hash of our copy, the server answers with what differs
+        int round = rounds.merge(dir,1,Integer::sum);
+        File local = new File(directoryManager.home,dir);
+        if(round>MAX_ROUNDS){                       //keeps changing while we compare, take the whole tree
+            rounds.remove(dir);
+            localTrees.remove(dir);
+            walks.remove(dir);
+            if(local.exists())
+                directoryManager.deleteDirectory(local);
+            send(Command.join("sync",dir));
+            return;
+        }
+        MerkleTree tree = MerkleTree.scan(local);
+        localTrees.put(dir,tree);
+        listings.put(dir,new HashSet<String>());
+        walks.put(dir,1);
+        send(Command.join("resync",dir,tree.hex()));
+    }
+    void compare(String[] update) throws IOException{  //sync_hashes path name hash .. : asks for the children that differ
+        String path = update[1];
+        String[] segments = DependencyIndex.segments(path);
+        MerkleTree tree = localTrees.get(segments[0]);
+        MerkleTree local = tree==null ? null : tree.find(String.join("/",Arrays.copyOfRange(segments,1,segments.length)));
+        File dir = new File(directoryManager.home,path);
+        Map<String,String> hashes = new HashMap<String,String>();
+        for(int i=2; i+1<update.length; i+=2)
+            hashes.put(update[i],update[i+1]);
+        int requests = 0;
+        if(local!=null){
+            for(String name : local.children.keySet()){     //gone on the server
+                if(!hashes.containsKey(name))
+                    directoryManager.deleteDirectory(new File(dir,name));
+            }
+        }
+        for(Map.Entry<String,String> child : hashes.entrySet()){
+            MerkleTree copy = local==null ? null : local.children.get(child.getKey());
+            String childPath = path+"/"+child.getKey();
+            if(copy==null)
+                send(Command.join("subtree",childPath));
+            else if(!copy.hex().equals(child.getValue()))
+                send(Command.join("hashes",childPath));
+            else
+                continue;
+            requests++;
+        }
+        answered(path,requests);
+    }
+    void removeUnlisted(String dir,Set<String> listed) throws IOException{  //files removed on the server while we were disconnected
+        Path home = directoryManager.home.toPath();
+        Files.walkFileTree(home.resolve(dir),new SimpleFileVisitor<Path>(){
+            @Override
+            public FileVisitResult visitFile(Path path,BasicFileAttributes attributes) throws IOException{
+                String name = SyncState.key(home,path);   //as the server sends it
+                if(name.endsWith(".part"))      //resumed with its file
+                    name = name.substring(0,name.length()-5);
+                if(!listed.contains(name))
+                    Files.deleteIfExists(path);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    void answered(String path,int requests) throws IOException{    //one request of a comparison answered, requests more sent
+        String dir = DependencyIndex.segments(path)[0];
+        Integer left = walks.get(dir);
+        if(left==null)
+            return;
+        left += requests-1;
+        walks.put(dir,left);
+        if(left==0)                                 //copy repaired, compared again from the root to subscribe
+            resync(dir);
+    }
+}
@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Tokenizing of text commands, shared by server, client and logger.
+ * Tokens are separated by spaces, a token with spaces in it is written inside double quotes
+ * e.g  mv "my dir" other  =>  [mv, my dir, other]   (\" and \\ escape inside quotes)
+ */
+public class Command {
+
+    public static String[] split(String line){   //always returns at least one token so command[0] can be switched on
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+        Boolean quoted = false, inToken = false;
+        for(int i=0; i<line.length(); i++){
+            char c = line.charAt(i);
+            if(quoted){
+                if(c=='\\' && i+1<line.length())
+                    token.append(line.charAt(++i));
+                else if(c=='"')
+                    quoted = false;
+                else
+                    token.append(c);
+            }
+            else if(c==' '){
+                if(inToken)
+                    tokens.add(token.toString());
+                token.setLength(0);
+                inToken = false;
+            }
+            else if(c=='"'){
+                quoted = true;
+                inToken = true;
+            }
+            else{
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if(inToken)
+            tokens.add(token.toString());
+        if(tokens.isEmpty())
+            tokens.add("");
+        return tokens.toArray(new String[0]);
+    }
+
+    public static String join(String... tokens){ //inverse of split, quotes only the tokens that need it
+        StringBuilder line = new StringBuilder();
+        for(String token : tokens){
+            if(line.length()>0)
+                line.append(' ');
+            line.append(quote(token));
+        }
+        return line.toString();
+    }
+
+    public static String quote(String token){
+        if(!token.isEmpty() && token.indexOf(' ')==-1 && token.indexOf('"')==-1 && token.indexOf('\\')==-1)
+            return token;
+        return "\""+token.replace("\\","\\\\").replace("\"","\\\"")+"\"";
+    }
+}
@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Which logged commands of a session depend on which, to undo a command together with everything done after it
+ * that relied on it. For every operand path of a log the index keeps the sequences of the logs using that path,
+ * per command and operand. Paths are ids of the PathDictionary whose parent links form a trie of path segments,
+ * so the logs depending on one are found by walking up from its paths instead of comparing it with every later log.
+ *
+ * A later log A depends on a log B when one of the RULES holds for them. A rule compares an operand of B with an
+ * operand of A, either for equality or for "below" : the path of B is the path of A or inside it (a/b is below a,
+ * ab is not).
+ * The logs of a bulk command are one batch (see LogStore) : undoing one of them undoes all of them.
+ */
+public class DependencyIndex {
+
+    static class Rule {
+        String op;              //command of B
+        int arg;                //operand of B
+        String dependentOp;     //command of A
+        int dependentArg;       //operand of A
+        Boolean below;          //operand of B below the one of A, equal otherwise
+        int dependentRole;      //see role()
+
+        Rule(String op,int arg,String dependentOp,int dependentArg,Boolean below){
+            this.op = op;
+            this.arg = arg;
+            this.dependentOp = dependentOp;
+            this.dependentArg = dependentArg;
+            this.below = below;
+            dependentRole = role(LogStore.opcode(dependentOp),dependentArg);
+        }
+
+        Boolean matches(String path,String dependentPath){
+            String[] p = segments(path), d = segments(dependentPath);
+            if(below ? p.length<d.length : p.length!=d.length)
+                return false;
+            for(int i=0; i<d.length; i++){
+                if(!p[i].equals(d[i]))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    final static Boolean BELOW = true, EQUAL = false;
+    final static Rule[] RULES = {
+        //a created directory : commands inside of it, and renames of it
+        new Rule("mkdir",1,"mkdir",1,BELOW), new Rule("mkdir",1,"rm",1,BELOW), new Rule("mkdir",1,"ls",1,BELOW),
+        new Rule("mkdir",1,"mv",1,BELOW), new Rule("mkdir",1,"mv",2,BELOW), new Rule("mkdir",1,"rn",1,EQUAL),
+        new Rule("mkdir",1,"cp",1,BELOW), new Rule("mkdir",1,"cp",2,BELOW),
+        //a removed directory : created again, or something else moved or copied in its place
+        new Rule("rm",1,"mkdir",1,BELOW), new Rule("rm",1,"mv",1,EQUAL), new Rule("rm",1,"rn",1,EQUAL),
+        new Rule("rm",1,"cp",2,BELOW),
+        //a moved directory : commands on its new path, and its old path reused
+        new Rule("mv",1,"mkdir",1,EQUAL), new Rule("mv",2,"rm",1,BELOW), new Rule("mv",2,"mv",1,BELOW),
+        new Rule("mv",1,"mv",2,BELOW), new Rule("mv",2,"rn",1,BELOW), new Rule("mv",1,"rn",1,EQUAL),
+        new Rule("mv",1,"ls",1,BELOW), new Rule("mv",2,"cp",1,BELOW), new Rule("mv",1,"cp",2,BELOW),
+        //a renamed directory : same as a moved one
+        new Rule("rn",1,"mkdir",1,EQUAL), new Rule("rn",2,"mkdir",1,BELOW), new Rule("rn",2,"rm",1,BELOW),
+        new Rule("rn",2,"mv",1,BELOW), new Rule("rn",1,"mv",2,EQUAL), new Rule("rn",2,"rn",1,BELOW),
+        new Rule("rn",1,"rn",1,EQUAL), new Rule("rn",1,"ls",1,BELOW), new Rule("rn",2,"cp",1,BELOW),
+        new Rule("rn",1,"cp",2,BELOW),
+        //a copy : same as a created directory, the source isn't changed
+        new Rule("cp",2,"mkdir",1,BELOW), new Rule("cp",2,"rm",1,BELOW), new Rule("cp",2,"ls",1,BELOW),
+        new Rule("cp",2,"mv",1,BELOW), new Rule("cp",2,"mv",2,BELOW), new Rule("cp",2,"rn",1,EQUAL),
+        new Rule("cp",2,"cp",1,BELOW), new Rule("cp",2,"cp",2,BELOW)
+        //nothing depends on ls
+    };
+    final static Map<String,List<Rule>> RULES_BY_OP = new HashMap<String,List<Rule>>();
+    static{
+        for(Rule rule : RULES)
+            RULES_BY_OP.computeIfAbsent(rule.op,op -> new ArrayList<Rule>()).add(rule);
+    }
+    static List<Rule> rules(String op){
+        return RULES_BY_OP.getOrDefault(op,Collections.<Rule>emptyList());
+    }
+
+    static String[] segments(String path){  //a/./b/ => [a,b]
+        List<String> segments = new ArrayList<String>();
+        for(String segment : path.split("/")){
+            if(!segment.isEmpty() && !segment.equals("."))
+                segments.add(segment);
+        }
+        return segments.toArray(new String[0]);
+    }
+
+    static int role(byte op,int arg){       //command and operand a path is used as, e.g 2nd operand of mv
+        return op*2+arg-1;
+    }
+    static long key(int path,int role){
+        return (long)path*16+role;
+    }
+
+    static class Postings {                 //sequences of the logs using a path in one role, ascending
+        long[] sequences = new long[2];
+        int size = 0;
+
+        void add(long sequence){            //logs come in sequence order, kept sorted anyway
+            if(size==sequences.length)
+                sequences = Arrays.copyOf(sequences,size*2);
+            int i = size;
+            while(i>0 && sequences[i-1]>sequence){
+                sequences[i] = sequences[i-1];
+                i--;
+            }
+            sequences[i] = sequence;
+            size++;
+        }
+        void remove(long sequence){
+            int i = Arrays.binarySearch(sequences,0,size,sequence);
+            if(i<0)
+                return;
+            System.arraycopy(sequences,i+1,sequences,i,size-i-1);
+            size--;
+        }
+        int after(long sequence){           //index of the first sequence greater than sequence
+            int i = Arrays.binarySearch(sequences,0,size,sequence);
+            return i<0 ? -i-1 : i+1;
+        }
+    }
+
+    LogStore logs;
+    Map<Long,Postings> postings;            //key(path,role) => logs
+
+    DependencyIndex(LogStore logs){
+        this.logs = logs;
+        postings = new HashMap<Long,Postings>();
+    }
+
+    void add(int index){
+        for(int arg=1; arg<=2; arg++){
+            int path = logs.path(index,arg);
+            if(path!=-1)
+                postings.computeIfAbsent(key(path,role(logs.op(index),arg)),key -> new Postings()).add(logs.sequence(index));
+        }
+    }
+    void remove(int index){
+        for(int arg=1; arg<=2; arg++){
+            int path = logs.path(index,arg);
+            Postings found = path==-1 ? null : postings.get(key(path,role(logs.op(index),arg)));
+            if(found!=null)
+                found.remove(logs.sequence(index));
+        }
+    }
+
+    void dependents(int index,List<Long> dependents){  //sequences of the logs directly depending on log index
+        long sequence = logs.sequence(index);
+        for(Rule rule : rules(LogStore.OPS[logs.op(index)])){
+            int path = logs.path(index,rule.arg);
+            if(path==-1)
+                continue;
+            //the path itself, and for below all the paths above it too
+            for(int above = path; above!=-1; above = rule.below ? logs.paths.parent(above) : -1){
+                Postings found = postings.get(key(above,rule.dependentRole));
+                if(found==null)
+                    continue;
+                for(int i=found.after(sequence); i<found.size; i++)
+                    dependents.add(found.sequences[i]);
+            }
+        }
+    }
+
+    long[] cascade(int index){              //sequences of the log and everything depending on it, directly or not, ascending
+        Set<Long> found = new HashSet<Long>();
+        Deque<Long> pending = new ArrayDeque<Long>();
+        found.add(logs.sequence(index));
+        pending.add(logs.sequence(index));
+        List<Long> dependents = new ArrayList<Long>();
+        while(!pending.isEmpty()){
+            long sequence = pending.poll();
+            dependents.clear();
+            dependents(logs.find(sequence),dependents);
+            long[] batch = logs.batches.isEmpty() ? null : logs.batchOf(sequence);
+            for(long sibling = batch==null ? 0 : batch[0]; batch!=null && sibling<=batch[1]; sibling++)
+                dependents.add(sibling);
+            for(Long dependent : dependents){
+                if(found.add(dependent))
+                    pending.add(dependent);
+            }
+        }
+        long[] cascade = new long[found.size()];
+        int i = 0;
+        for(Long sequence : found)
+            cascade[i++] = sequence;
+        Arrays.sort(cascade);
+        return cascade;
+    }
+}
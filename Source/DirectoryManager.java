@@ -3,58 +3,79 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Consumer;
 
 public class DirectoryManager {
     String username;        //username to check for permissions
     public File PWD,root;   //PWD(Present Working Directory) and root directory files
-    Pattern pattern;        // to process paths with regex
-    static String osPathSeprator = "\\\\";   // "\\\\" for windows and "/" for unix based
+    File home;              //root/username, the user can't go above it
+    NamespaceIndex index;   //answers lookups and listings from memory, null to always ask the filesystem
+    Trash trash;            //rm moves directories here when set (server in trash mode)
     public DirectoryManager(String directory,String _username){
+        this(directory,_username,null);
+    }
+    public DirectoryManager(String directory,String _username,NamespaceIndex index){
         username = _username;
+        this.index = index;
         root = new File(directory);
         if(!root.exists())              //create root directory if it doesn't exists
             root.mkdir();
-        PWD = new File(root,username);  //set home directory(root/username) as PWD
+        home = new File(root,username);
+        PWD = home;                     //set home directory(root/username) as PWD
         if (!PWD.exists()) {            //create PWD directory if it doesn't exists
             PWD.mkdir();
+            if(index!=null)
+                index.created(PWD.toPath(),true);
         }
-        pattern = Pattern.compile(root + osPathSeprator + username + osPathSeprator + "(.*)");
     }
 
     public Boolean exists(String name){
         File directory = new File(PWD, name);
-        return directory.exists();
+        return exists(directory);
+    }
+    Boolean exists(File file){          //from the index when file is inside of it
+        if(index==null || index.relative(file.toPath())==null)
+            return file.exists();
+        try{
+            return index.exists(file.toPath());
+        }
+        catch(IOException e){           //directory couldn't be listed
+            return file.exists();
+        }
+    }
+    public Boolean isHome(){
+        return isHome(PWD);
+    }
+    Boolean isHome(File dir){
+        return home.toPath().toAbsolutePath().normalize().equals(dir.toPath().toAbsolutePath().normalize());
     }
 
-    public String getCurrentDir(){
-        Matcher matcher = pattern.matcher(PWD.getPath());
-        if(matcher.matches())
-            return matcher.group(1)+"/";
-        return "";
+    public String getCurrentDir(){      //PWD relative to home, e.g "a/b/" ("" at home)
+        Path relative = home.toPath().toAbsolutePath().normalize().relativize(PWD.toPath().toAbsolutePath().normalize());
+        if(relative.toString().isEmpty())
+            return "";
+        return relative.toString().replace(File.separatorChar,'/')+"/";
     }
 
     public void changeDirectory(String path) throws IOException{
-        String[] dirs = path.split("/");    //split path by / , e.g a/b/c => [a,b,c]
-        for(String dir : dirs){
+        File newPWD = PWD;
+        for(Path segment : Paths.get(path)){    //path by segments , e.g a/b/c => [a,b,c]
+            String dir = segment.toString();
             if(dir.equals("..")){          //case : moving backwards (to parent directory)
-                String home = root.getPath()+"/"+username;
-                if(home.equals(PWD.getPath())){ //to confine user to their home directories
+                if(isHome(newPWD)){ //to confine user to their home directories
                     throw new IOException("Error : Insufficient permissions");
                 }
-                PWD = PWD.getParentFile();
+                newPWD = newPWD.getParentFile();
             }
-            else{                           //case : moving into a directory
-                File newPWD = new File(PWD,dir);
-                if(newPWD.exists()){    //set PWD to selected directory it it exists
-                    PWD = newPWD;
-                }
-                else{
+            else if(!dir.isEmpty() && !dir.equals(".")){   //case : moving into a directory
+                newPWD = new File(newPWD,dir);
+                if(!exists(newPWD)){
                     throw new IOException("Directory "+path+"doesn't exist");
                 }
             }
         }
+        PWD = newPWD;   //set PWD to selected directory once all of it exists
     }
 	
 	public void createDirectory(String path) throws IOException{
@@ -64,8 +85,10 @@ public class DirectoryManager {
         //keep moving to subdirectories in path and creating if they dont exists
         for(String dir : dirs){
             File directory = new File(currDir, dir);
-            if(!directory.exists()){
+            if(!exists(directory)){
                 directory.mkdir();
+                if(index!=null)
+                    index.created(directory.toPath(),true);
                 didCreate = true;
             }
             currDir = directory;
@@ -75,27 +98,54 @@ public class DirectoryManager {
         }
 	}
 	public boolean deleteDirectory(String path) throws IOException{
+        File target = target(path);
+        //finally delete the last directory in path, e.g delete only "d" in "a/b/c/d"
+        Boolean deleted = deleteDirectory(target);
+        if(index!=null)
+            index.deleted(target.toPath());
+        return deleted;
+    }
+	public boolean deleteDirectory(File directory) throws IOException{
+		return TreeDeleter.delete(directory.toPath());    //in parallel for large trees
+    }
+    public String trashDirectory(String path) throws IOException{  //rm in trash mode, returns the trash entry to restore it
+        File target = target(path);
+        String entry = trash.put(target.toPath(),username);
+        if(index!=null)
+            index.deleted(target.toPath());
+        return entry;
+    }
+    public void restoreDirectory(String entry,String path) throws IOException{ //undo of a trashed rm
+        File target = new File(PWD,path);
+        trash.restore(entry,target.toPath());
+        if(index!=null)
+            index.created(target.toPath(),true);
+    }
+    public void stageDirectory(String path,Path staged) throws IOException{  //rm of an undo plan, can still be put back until the plan is done
+        File target = target(path);
+        Files.move(target.toPath(),staged,StandardCopyOption.ATOMIC_MOVE);
+        if(index!=null)
+            index.deleted(target.toPath());
+    }
+    public void unstageDirectory(Path staged,String path) throws IOException{
+        File target = new File(PWD,path);
+        Files.move(staged,target.toPath(),StandardCopyOption.ATOMIC_MOVE);
+        if(index!=null)
+            index.created(target.toPath(),true);
+    }
+    File target(String path) throws IOException{   //existing file or directory to remove, below home
         String[] dirs = path.split("/");
         File currDir = PWD; //creating a copy of PWD because we don't want to cd and change our PWD
         //keep moving to subdirectories  if they exists
         for(String dir : dirs){
             currDir = new File(currDir,dir);
-            if(!currDir.exists())
+            if(!exists(currDir))
                 throw new IOException("target doesn't exist");
         }
-        //finally delete the last directory in path, e.g delete only "d" in "a/b/c/d"
-        return deleteDirectory(currDir);
-    }
-	public boolean deleteDirectory(File directory) throws IOException{
-		//https://www.programiz.com/java-programming/examples/delete-directory > Example 3
-		if(directory.isDirectory()) {
-			for(File file : directory.listFiles()) {
-                // recursive call if the sub-directory is non-empty
-                deleteDirectory(file);
-            }
-        }
-
-		return directory.delete();
+        Path target = currDir.toPath().toAbsolutePath().normalize();
+        if(!target.startsWith(home.toPath().toAbsolutePath().normalize()) || isHome(currDir))
+            throw new IOException("Error : Insufficient permissions");
+        return currDir;
     }
     
     public void moveDirectory(String source, String target) throws IOException{
@@ -104,21 +154,50 @@ public class DirectoryManager {
         Path targetFilePath = Paths.get(PWD.getPath()+"/"+target);
         //using builtin move function which uses Paths
         Files.move(sourceFilePath,targetFilePath);
+        if(index!=null)
+            index.moved(sourceFilePath,targetFilePath);
+    }
+
+    public TreeCopier copyDirectory(String source,String target) throws IOException{   //cp -r, target must not exist yet
+        File sourceFile = target(source);
+        File targetFile = new File(PWD,target);
+        if(!targetFile.toPath().toAbsolutePath().normalize().startsWith(home.toPath().toAbsolutePath().normalize()))
+            throw new IOException("Error : Insufficient permissions");
+        if(exists(targetFile))
+            throw new IOException(target+" already exists");
+        TreeCopier copier = TreeCopier.copy(sourceFile.toPath(),targetFile.toPath());  //in parallel for large trees
+        if(index!=null)
+            index.created(targetFile.toPath(),sourceFile.isDirectory());
+        return copier;
     }
 
     public void renameDirectory(String current, String target) throws IOException{
         File currentFile = new File(PWD.getPath()+"/"+current);
         File targetFile = new File(PWD.getPath()+"/"+target);
-        if(targetFile.exists())
+        if(exists(targetFile))
             throw new IOException("target file already exists");
         //using inbuilt rename function
-        currentFile.renameTo(targetFile);
+        if(!currentFile.renameTo(targetFile))
+            throw new IOException("couldn't rename "+current+" to "+target);
+        if(index!=null)
+            index.moved(currentFile.toPath(),targetFile.toPath());
     }
 	
+    public Boolean listContents(File directory,Listing listing,Consumer<String> names) throws IOException{ //streams a page of ls, true if there is more
+        String[] indexed = null;
+        if(index!=null && index.relative(directory.toPath())!=null)
+            indexed = index.list(directory.toPath());
+        return listing.list(directory.toPath(),indexed,names);
+    }
 	public String [] listContents(File directory) throws IOException{
 		/*
 		 * Returns an array of strings, each element in array is a file name
 		 */
+        if(index!=null && index.relative(directory.toPath())!=null){
+            String[] names = index.list(directory.toPath());    //sorted by name
+            if(names!=null)
+                return names;
+        }
 		File [] dirContents = directory.listFiles();
 		String [] arrOfFileNames = new String[dirContents.length];
 		int i = 0;
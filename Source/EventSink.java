@@ -0,0 +1,12 @@
+/*
+ * Subscriber of the ServerEvents, e.g the Swing window (SwingConsole), a RingBufferSink or an AsyncAppenderSink.
+ */
+public interface EventSink {
+    void print(String s);                                   //line(s) printed on the live console
+    default void usersChanged(String usernameList){}        //list of connected users changed
+    default void logOpened(String username){}               //new client, its log starts empty
+    default void logAppended(String username,String line){} //one log entry was added
+    default void logRewritten(String username,String logs){}    //logs were deleted, the whole log is sent again
+    default void logClosed(String username){}
+    default void close(){}
+}
@@ -0,0 +1,198 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/*
+ * Client end of a data connection (see FileTransfer).
+ * A file announced by sync_file which the local copy doesn't have with the same size and modification time is
+ * fetched from the length of its .part file, chunks go from the socket to the .part file with
+ * FileChannel.transferFrom and are checked by mapping what was written. A chunk that doesn't match its CRC is
+ * cut off and fetched again, a complete .part file replaces the file.
+ * The .part file carries the modification time of the version it holds, so it is only resumed for that version,
+ * and chunks of a version announced before the last one are dropped.
+ * The lock is only held to take a chunk and to finish it, the transfer itself runs without it, so sync_file and
+ * sync_rmfile on the control thread aren't held up by a large file.
+ */
+public class FileReceiver implements Runnable {
+    final static int RETRIES = 3;           //of a chunk that doesn't match its CRC
+
+    SocketChannel channel;
+    File home;
+    Map<String,long[]> wanted;              //path => size and modification time of the files being fetched
+    Map<String,Integer> failures;
+    Consumer<String> requests;              //sends a control line (fetch path offset)
+    Consumer<String> messages;              //shown on the console
+    String receiving;                       //path of the chunk being written, its .part file is left alone meanwhile
+
+    FileReceiver(String host,int port,String token,File home,Consumer<String> requests,Consumer<String> messages) throws IOException{
+        channel = SocketChannel.open(new InetSocketAddress(host,port));
+        ByteBuffer greeting = ByteBuffer.wrap((token+"\n").getBytes(StandardCharsets.UTF_8));
+        while(greeting.hasRemaining())
+            channel.write(greeting);
+        this.home = home;
+        this.requests = requests;
+        this.messages = messages;
+        wanted = new ConcurrentHashMap<String,long[]>();
+        failures = new ConcurrentHashMap<String,Integer>();
+    }
+    static File part(File file){
+        return new File(file.getParentFile(),file.getName()+".part");
+    }
+
+    synchronized void offer(String path,long size,long time){  //sync_file, fetched unless we have it already
+        File file = new File(home,path);
+        if(file.isFile() && file.length()==size && file.lastModified()==time)
+            return;
+        File part = part(file);
+        if(path.equals(receiving)){         //its .part file is being written, dropped after the chunk if outdated
+            if(wanted(path,size,time))
+                return;                     //already coming
+            wanted.put(path,new long[]{size,time});
+            requests.accept(Command.join("fetch",path,"0"));
+            return;
+        }
+        if(part.exists() && (part.lastModified()!=time || part.length()>size))
+            part.delete();                  //of another version
+        wanted.put(path,new long[]{size,time});
+        requests.accept(Command.join("fetch",path,Long.toString(part.length())));
+    }
+    synchronized void remove(String path){  //sync_rmfile
+        File file = new File(home,path);
+        wanted.remove(path);
+        file.delete();
+        if(!path.equals(receiving))         //else dropped after the chunk
+            part(file).delete();
+    }
+    Boolean wanted(String path,long size,long time){
+        long[] version = wanted.get(path);
+        return version!=null && version[0]==size && version[1]==time;
+    }
+
+    public void run(){
+        try{
+            while(true)
+                receive();
+        }
+        catch(IOException e){
+            //disconnected, the .part files are resumed next time
+        }
+    }
+    void receive() throws IOException{      //one chunk
+        ByteBuffer length = read(2);
+        String path = new String(read(length.getShort() & 0xffff).array(),StandardCharsets.UTF_8);
+        ByteBuffer header = read(8+4+8+8+8);
+        long offset = header.getLong();
+        int count = header.getInt();
+        long size = header.getLong();
+        long time = header.getLong();
+        long crc = header.getLong();
+        File file = new File(home,path);
+        File part = part(file);
+        Boolean taken;
+        synchronized(this){                 //only to take the chunk, offer and remove aren't held up by the transfer
+            //not wanted anymore or another version (gone on the server if size is -1), or the offset is not the end of
+            //the .part file : after a chunk that was cut off, or of a fetch asked twice
+            taken = wanted(path,size,time) && file.getParentFile().isDirectory() && offset==part.length();
+            if(taken)
+                receiving = path;
+        }
+        if(!taken){
+            skip(count);
+            return;
+        }
+        Boolean valid,complete;
+        try(FileChannel target = FileChannel.open(part.toPath(),StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.READ)){
+            long received = 0;
+            while(received<count){
+                long n = target.transferFrom(channel,offset+received,count-received);
+                if(n==0)
+                    throw new EOFException();
+                received += n;
+            }
+            CRC32 check = new CRC32();
+            if(count>0){
+                MappedByteBuffer written = target.map(FileChannel.MapMode.READ_ONLY,offset,count);
+                check.update(written);
+            }
+            valid = check.getValue()==crc;
+            complete = valid && offset+count>=size;
+            if(!valid)
+                target.truncate(offset);
+            else if(complete)
+                target.truncate(size);
+        }
+        catch(IOException e){
+            synchronized(this){
+                receiving = null;
+            }
+            throw e;
+        }
+        synchronized(this){
+            receiving = null;
+            if(!wanted(path,size,time)){    //removed or announced again with another version meanwhile
+                part.delete();
+                return;
+            }
+            if(!valid){
+                if(failures.merge(path,1,Integer::sum)<=RETRIES)
+                    requests.accept(Command.join("fetch",path,Long.toString(offset)));
+                else{
+                    wanted.remove(path);
+                    messages.accept(path+" : transfer failed, checksum mismatch");
+                }
+                return;
+            }
+            if(!complete){
+                part.setLastModified(time); //marks the version it holds, for a resume
+                return;
+            }
+            wanted.remove(path);
+            failures.remove(path);
+            Files.move(part.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+            file.setLastModified(time);
+        }
+        messages.accept(path+" : "+size+" bytes received");
+    }
+    ByteBuffer read(int length) throws IOException{     //exactly length bytes, so nothing of the chunk body is read ahead
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while(bytes.hasRemaining()){
+            if(channel.read(bytes)==-1)
+                throw new EOFException();
+        }
+        bytes.flip();
+        return bytes;
+    }
+    void skip(int count) throws IOException{
+        ByteBuffer scratch = ByteBuffer.allocateDirect(Math.min(Math.max(count,1),64*1024));
+        long left = count;
+        while(left>0){
+            scratch.clear().limit((int)Math.min(scratch.capacity(),left));
+            int n = channel.read(scratch);
+            if(n==-1)
+                throw new EOFException();
+            left -= n;
+        }
+    }
+
+    void close(){
+        try{
+            channel.close();
+        }
+        catch(IOException e){
+            System.out.println(e);
+        }
+    }
+}
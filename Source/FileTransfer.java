@@ -0,0 +1,225 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+/*
+ * Data connections carrying the contents of synced files, next to the session which stays line or frame based.
+ * A client sends "data" and is answered "sync_data <port> <token>", it connects to the port and writes the token
+ * followed by a newline. Then "fetch path offset" queues a file for its data connection, sent from offset on in
+ * chunks : each chunk is read once into a direct buffer, its CRC-32 taken from it for the header and the same
+ * buffer written to the socket, so the bytes sent are the ones checked even if the file changes meanwhile and
+ * they are never copied to the heap. The client checks each chunk, keeps what it has in a .part file and a
+ * transfer that was cut off is fetched again from there. Fetches wait for the client to connect at most
+ * CONNECT_TIMEOUT, then they are dropped and the client has to ask for a data connection again.
+ *
+ *   chunk : short n | n bytes UTF-8 path | long offset | int length | long size | long modified | long crc32 | length bytes
+ *   size is -1 when the file no longer exists, no bytes follow. size and modified tell which version of the file
+ *   the chunk is from, the client drops chunks of a version it no longer wants.
+ */
+public class FileTransfer implements Runnable, Closeable {
+    final static int CHUNK = 1024*1024;
+    final static int MAX_TOKEN = 64;
+    final static long CONNECT_TIMEOUT = 30000; //ms a client has to open its data connection
+
+    ServerSocketChannel serverChannel;
+    int port;
+    Map<String,Connection> waiting;     //token => data connection whose client didn't connect yet
+    SecureRandom random;
+    Thread thread;
+
+    FileTransfer(int port) throws IOException{
+        this.port = port;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        waiting = new ConcurrentHashMap<String,Connection>();
+        random = new SecureRandom();
+        thread = new Thread(this,"file-transfer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Connection open(){                  //data connection of a session, fetches are queued until the client connects
+        for(Connection connection : waiting.values())
+            connection.expired();           //drops those never connected to
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for(byte b : bytes)
+            token.append(String.format("%02x",b));
+        Connection connection = new Connection(token.toString());
+        waiting.put(connection.token,connection);
+        return connection;
+    }
+
+    public void run(){
+        try{
+            while(true){
+                SocketChannel channel = serverChannel.accept();
+                Threads.start("data-connect",() -> attach(channel));
+            }
+        }
+        catch(IOException e){
+            //closed
+        }
+    }
+    void attach(SocketChannel channel){ //reads the token, then the connection sends what was fetched
+        try{
+            ByteBuffer one = ByteBuffer.allocate(1);
+            StringBuilder token = new StringBuilder();
+            while(token.length()<=MAX_TOKEN){
+                one.clear();
+                if(channel.read(one)==-1)
+                    throw new EOFException();
+                char c = (char)one.get(0);
+                if(c=='\n')
+                    break;
+                token.append(c);
+            }
+            Connection connection = waiting.remove(token.toString().trim());
+            if(connection==null){
+                channel.close();
+                return;
+            }
+            connection.start(channel);
+        }
+        catch(IOException e){
+            try{
+                channel.close();
+            }
+            catch(IOException ignored){
+            }
+        }
+    }
+
+    public void close(){
+        try{
+            serverChannel.close();
+        }
+        catch(IOException e){
+            System.out.println(e);
+        }
+    }
+
+    class Connection implements Closeable {
+        String token;
+        SocketChannel channel;                  //null until the client connected
+        BlockingQueue<Object[]> fetches;        //{File, path, offset}, the empty array closes the connection
+        ByteBuffer check;                       //direct, the chunk is read into it for its CRC and sent from it
+        long opened;
+        Boolean expired;                        //not connected to within CONNECT_TIMEOUT, its fetches were dropped
+
+        Connection(String token){
+            this.token = token;
+            fetches = new LinkedBlockingQueue<Object[]>();
+            opened = System.currentTimeMillis();
+            expired = false;
+        }
+        synchronized void start(SocketChannel channel) throws IOException{
+            if(expired){                        //too late, the session was told to ask again
+                channel.close();
+                return;
+            }
+            this.channel = channel;
+            check = ByteBuffer.allocateDirect(CHUNK);
+            Threads.start("data-"+token.substring(0,8),this::send);
+        }
+        synchronized Boolean expired(){
+            if(!expired && channel==null && System.currentTimeMillis()-opened>CONNECT_TIMEOUT){
+                expired = true;
+                waiting.remove(token);
+                fetches.clear();
+            }
+            return expired;
+        }
+        Boolean fetch(File file,String path,long offset){  //false if the client never connected, nothing is queued then
+            if(expired())
+                return false;
+            fetches.add(new Object[]{file,path,offset});
+            return true;
+        }
+
+        void send(){
+            try{
+                while(true){
+                    Object[] fetch = fetches.take();
+                    if(fetch.length==0)
+                        break;
+                    send((File)fetch[0],(String)fetch[1],(Long)fetch[2]);
+                }
+            }
+            catch(IOException | InterruptedException e){
+                //client gone
+            }
+            finally{
+                try{
+                    channel.close();
+                }
+                catch(IOException e){
+                    System.out.println(e);
+                }
+            }
+        }
+        void send(File file,String path,long offset) throws IOException{
+            FileChannel source;
+            try{
+                source = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+            }
+            catch(NoSuchFileException e){
+                writeHeader(path,offset,0,-1,0,0);
+                return;
+            }
+            try{
+                long size = source.size();
+                long modified = Files.getLastModifiedTime(file.toPath()).toMillis();
+                long position = Math.min(offset,size);
+                do{                             //an empty file is one empty chunk
+                    int length = (int)Math.min(CHUNK,size-position);
+                    check.clear().limit(length);
+                    while(check.hasRemaining() && source.read(check,position+check.position())!=-1);
+                    check.flip();
+                    length = check.remaining();     //shorter if it was truncated meanwhile
+                    CRC32 crc = new CRC32();
+                    crc.update(check);
+                    writeHeader(path,position,length,size,modified,crc.getValue());
+                    check.rewind();
+                    while(check.hasRemaining())
+                        channel.write(check);
+                    position += length;
+                    if(length==0)
+                        break;
+                }while(position<size);
+            }
+            finally{
+                source.close();
+            }
+        }
+        void writeHeader(String path,long offset,int length,long size,long modified,long crc) throws IOException{
+            byte[] name = path.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.allocate(2+name.length+8+4+8+8+8);
+            header.putShort((short)name.length).put(name).putLong(offset).putInt(length).putLong(size).putLong(modified).putLong(crc).flip();
+            while(header.hasRemaining())
+                channel.write(header);
+        }
+
+        public void close(){            //what is queued is still sent
+            waiting.remove(token);
+            fetches.add(new Object[0]);
+        }
+    }
+}
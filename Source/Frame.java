@@ -0,0 +1,159 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * Binary framing, negotiated after login by sending the line "binary" (server answers "binary ok").
+ *
+ *   int length | byte opcode | int requestId | short argc | argc x (int size | UTF-8 bytes)
+ *
+ * length counts the bytes after itself. Every frame the server sends while handling a request carries
+ * the id of that request and the last one is DONE, so a client can have several requests in flight.
+ * Updates of synced directories which are not part of a request use id 0.
+ */
+public class Frame {
+    final static int MAX_LENGTH = 16*1024*1024;    //larger frames are treated as a protocol error
+
+    enum Opcode {
+        /* --- requests (client to server) --- */
+        MKDIR, RM, MV, RN, LS, SYNC, DSYNC, LOG, SET,
+        /* --- responses and updates (server to client) --- */
+        LINE,           //one line of output, more frames follow
+        DONE,           //end of the response, args hold the final response (may be empty)
+        SYNC_MKDIR, SYNC_RM, SYNC_CD, SYNC_MV,
+        SYNC_VERSION,   //directory name and number of deltas sent for it
+        SYNC_SNAPSHOT,  //directory name and its whole tree (see TreeSnapshot)
+        QUIT,           //both ways, closes the session
+        SYNC_RESYNC,    //directory name, its updates were dropped for a slow client which has to sync it again
+        /* --- reconnect of a client keeping its copy (see MerkleTree), added last so the other codes don't change --- */
+        RESYNC, HASHES, SUBTREE,    //requests
+        SYNC_HASHES,    //path, then name and hash of each of its children
+        SYNC_SUBTREE,   //path and its tree (see TreeSnapshot), no tree if it no longer exists
+        /* --- contents of synced files (see FileTransfer) --- */
+        DATA, FETCH,    //requests
+        SYNC_DATA,      //port and token of the data connection
+        SYNC_FILE,      //path, size and modification time of a file
+        SYNC_RMFILE,    //path of a removed file
+        /* --- bulk commands (see Bulk) --- */
+        CP,             //request, cp [-r] source... target
+        /* --- metrics (see Metrics) --- */
+        STATS;          //request, counters and latencies of the server
+
+        static Opcode of(String command){   //opcode of a text command (sync_mkdir => SYNC_MKDIR), null if there is none
+            try{
+                return valueOf(command.toUpperCase());
+            }
+            catch(IllegalArgumentException e){
+                return null;
+            }
+        }
+    }
+
+    Opcode opcode;
+    int requestId;
+    String[] args;
+
+    Frame(Opcode opcode,int requestId,String... args){
+        this.opcode = opcode;
+        this.requestId = requestId;
+        this.args = args;
+    }
+
+    static Frame of(int requestId,String... tokens){   //frame for a tokenized text command, e.g [mkdir, a] => MKDIR a
+        Opcode opcode = Opcode.of(tokens[0]);
+        if(opcode==null)
+            throw new IllegalArgumentException("No opcode for "+tokens[0]);
+        return new Frame(opcode,requestId,Arrays.copyOfRange(tokens,1,tokens.length));
+    }
+
+    String[] command(){    //inverse of of(), the tokens ServerThread.process() expects
+        String[] command = new String[args.length+1];
+        command[0] = opcode.name().toLowerCase();
+        System.arraycopy(args,0,command,1,args.length);
+        return command;
+    }
+
+    byte[] encode(){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(11);
+        header.putInt(0);                               //length, filled in below
+        header.put((byte)opcode.ordinal());
+        header.putInt(requestId);
+        header.putShort((short)args.length);
+        bytes.write(header.array(),0,header.position());
+        for(String arg : args){
+            byte[] arg8 = arg.getBytes(StandardCharsets.UTF_8);
+            bytes.write(arg8.length>>>24);
+            bytes.write(arg8.length>>>16);
+            bytes.write(arg8.length>>>8);
+            bytes.write(arg8.length);
+            bytes.write(arg8,0,arg8.length);
+        }
+        byte[] frame = bytes.toByteArray();
+        ByteBuffer.wrap(frame).putInt(frame.length-4);
+        return frame;
+    }
+
+    static Frame decode(ByteBuffer body) throws IOException{ //body holds exactly one frame without its length
+        try{
+            int ordinal = body.get();
+            if(ordinal<0 || ordinal>=Opcode.values().length)
+                throw new IOException("Unknown opcode "+ordinal);
+            Opcode opcode = Opcode.values()[ordinal];
+            int requestId = body.getInt();
+            String[] args = new String[body.getShort()];
+            for(int i=0; i<args.length; i++){
+                int size = body.getInt();
+                if(size<0 || size>body.remaining())
+                    throw new IOException("Invalid frame");
+                byte[] arg8 = new byte[size];
+                body.get(arg8);
+                args[i] = new String(arg8,StandardCharsets.UTF_8);
+            }
+            return new Frame(opcode,requestId,args);
+        }
+        catch(RuntimeException e){                      //BufferUnderflowException, NegativeArraySizeException
+            throw new IOException("Invalid frame");
+        }
+    }
+
+    static Frame read(DataInputStream in) throws IOException{  //blocking read, null at end of stream
+        int length;
+        try{
+            length = in.readInt();
+        }
+        catch(EOFException e){
+            return null;
+        }
+        if(length<7 || length>MAX_LENGTH)
+            throw new IOException("Invalid frame length "+length);
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(ByteBuffer.wrap(body));
+    }
+
+    static String readLine(InputStream in) throws IOException{ //reads a text line without reading past it, null at end of stream
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while((b = in.read())!=-1 && b!='\n')
+            line.write(b);
+        if(b==-1 && line.size()==0)
+            return null;
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if(length>0 && bytes[length-1]=='\r')
+            length--;
+        return new String(bytes,0,length,Charset.defaultCharset());
+    }
+
+    @Override
+    public String toString() {
+        return "#"+requestId+" "+opcode+" "+Command.join(args);
+    }
+}
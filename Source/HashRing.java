@@ -0,0 +1,52 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+ * Consistent hashing of usernames onto the nodes of a cluster (see Router).
+ * Every node is put on a ring of 64 bit hashes at REPLICAS points, a username belongs to the node of the first
+ * point at or after its own hash. Adding a node only takes over the users between its points and the previous
+ * ones, removing one only hands its users to the next points, every other user stays where it is.
+ */
+public class HashRing {
+    final static int REPLICAS = 128;    //points per node, the share of each node is within a few percent of even
+
+    TreeMap<Long,String> points;        //hash => node
+
+    HashRing(){
+        points = new TreeMap<Long,String>();
+    }
+
+    void add(String node){
+        for(int i=0; i<REPLICAS; i++)
+            points.put(hash(node+"#"+i),node);
+    }
+    void remove(String node){
+        for(int i=0; i<REPLICAS; i++)
+            points.remove(hash(node+"#"+i),node);
+    }
+    Set<String> nodes(){
+        return new HashSet<String>(points.values());
+    }
+    String owner(String username){      //null if there is no node
+        if(points.isEmpty())
+            return null;
+        Map.Entry<Long,String> point = points.ceilingEntry(hash(username));
+        return (point==null ? points.firstEntry() : point).getValue();     //past the last point wraps around
+    }
+
+    static long hash(String key){        //first 8 bytes of its SHA-256, spread evenly whatever the names look like
+        try{
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        }
+        catch(NoSuchAlgorithmException e){     //every JDK has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
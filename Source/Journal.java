@@ -0,0 +1,256 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only journal of the logs of one user (--journal), so the undo history survives sessions and restarts.
+ * Kept in ServerDir.journal/<user> as numbered segments, a new one is started once the current one reaches
+ * SEGMENT_SIZE.
+ *
+ *   record : int length | int crc32 | byte type | body      (length and crc32 cover type and body)
+ *   ADD        long sequence | long time | int size | UTF-8 command
+ *   REMOVE     long sequence                   (log undone)
+ *   CHECKPOINT                                 (first record of a compacted segment, older segments are ignored)
+ *   BATCH      long sequence | int size | UTF-8 command   (the size logs from sequence on are one bulk command)
+ *
+ * Appends only write to the page cache, the syncer thread forces the file GROUP_COMMIT_MS later, so every command
+ * of that window is made durable by one fsync. Replay maps the segments and stops at the first torn record.
+ * Compaction writes the live logs to a new segment starting with a checkpoint and then deletes the older ones.
+ * It runs once the journal has grown COMPACT_GROWTH times its size after the previous compaction (and is at least
+ * COMPACT_MIN), so rewriting the history costs O(1) per appended byte however long the history is. Opening only
+ * compacts when replay skipped something : a torn tail, which later appends would be hidden behind, or segments
+ * older than the last checkpoint.
+ */
+public class Journal implements Closeable {
+    final static long SEGMENT_SIZE = 1024*1024;
+    final static int COMPACT_GROWTH = 2;        //compacted when the journal is that many times its compacted size
+    final static long COMPACT_MIN = 4*SEGMENT_SIZE;
+    final static long GROUP_COMMIT_MS = 20;
+    final static byte ADD = 1, REMOVE = 2, CHECKPOINT = 3, BATCH = 4;
+
+    JournalStore store;
+    Path dir;
+    List<Log> recovered;            //live logs found when the journal was opened, in order
+    TreeMap<Integer,Path> segments; //number => file, from the last checkpoint on
+    FileChannel channel;            //last segment, appended to
+    long size;                      //bytes of the segments from the last checkpoint on
+    long compacted;                 //size right after the last compaction
+    Boolean skipped;                //replay ignored torn records or segments older than the checkpoint
+    Boolean dirty;                  //written since the last force
+    Boolean syncScheduled;
+
+    Journal(JournalStore store,Path dir) throws IOException{
+        this.store = store;
+        this.dir = dir;
+        dirty = false;
+        syncScheduled = false;
+        Files.createDirectories(dir);
+        segments = new TreeMap<Integer,Path>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir,"*.seg")){
+            for(Path segment : stream)
+                segments.put(Integer.parseInt(segment.getFileName().toString().replace(".seg","")),segment);
+        }
+        skipped = false;
+        recovered = replay();
+        if(skipped || segments.isEmpty())
+            compact(recovered);                 //drops what replay ignored
+        else{
+            size = 0;
+            for(Path segment : segments.values())
+                size += Files.size(segment);
+            compacted = size;
+            channel = FileChannel.open(segments.lastEntry().getValue(),StandardOpenOption.WRITE,StandardOpenOption.APPEND);
+        }
+    }
+
+    List<Log> replay() throws IOException{
+        Map<Long,Log> logs = new LinkedHashMap<Long,Log>();
+        Integer checkpoint = null;
+        for(Map.Entry<Integer,Path> segment : segments.descendingMap().entrySet()){   //last complete checkpoint
+            if(startsWithCheckpoint(segment.getValue())){
+                checkpoint = segment.getKey();
+                break;
+            }
+        }
+        for(Map.Entry<Integer,Path> segment : segments.entrySet()){
+            if(checkpoint!=null && segment.getKey()<checkpoint){
+                skipped = true;
+                continue;
+            }
+            try(FileChannel file = FileChannel.open(segment.getValue(),StandardOpenOption.READ)){
+                MappedByteBuffer records = file.map(FileChannel.MapMode.READ_ONLY,0,file.size());
+                while(records.remaining()>=9){
+                    int start = records.position();
+                    int length = records.getInt();
+                    int crc = records.getInt();
+                    if(length<1 || length>records.remaining()){
+                        records.position(start);
+                        break;                  //torn record, written while crashing
+                    }
+                    ByteBuffer record = records.slice();
+                    record.limit(length);
+                    CRC32 check = new CRC32();
+                    check.update(record.duplicate());
+                    if((int)check.getValue()!=crc){
+                        records.position(start);
+                        break;
+                    }
+                    records.position(records.position()+length);
+                    byte type = record.get();
+                    if(type==ADD){
+                        long sequence = record.getLong();
+                        long time = record.getLong();
+                        byte[] command = new byte[record.getInt()];
+                        record.get(command);
+                        Log log = new Log(new String(command,StandardCharsets.UTF_8));
+                        log.sequence = sequence;
+                        log.timestamp = new Timestamp(time);
+                        logs.put(sequence,log);     //compaction may have written it again
+                    }
+                    else if(type==REMOVE)
+                        logs.remove(record.getLong());
+                    else if(type==BATCH){       //written after its logs
+                        Log first = logs.get(record.getLong());
+                        int batchSize = record.getInt();
+                        byte[] command = new byte[record.getInt()];
+                        record.get(command);
+                        if(first!=null){
+                            first.batch = new String(command,StandardCharsets.UTF_8);
+                            first.batchSize = batchSize;
+                        }
+                    }
+                }
+                if(records.hasRemaining())      //the next appends would only be read up to here
+                    skipped = true;
+            }
+        }
+        return new ArrayList<Log>(logs.values());
+    }
+    static Boolean startsWithCheckpoint(Path segment) throws IOException{
+        try(FileChannel file = FileChannel.open(segment,StandardOpenOption.READ)){
+            ByteBuffer header = ByteBuffer.allocate(9);
+            while(header.hasRemaining() && file.read(header)!=-1);
+            return !header.hasRemaining() && header.get(8)==CHECKPOINT;
+        }
+    }
+
+    synchronized void append(Log log) throws IOException{  //not durable until the next group commit
+        byte[] command = log.command.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1+8+8+4+command.length);
+        body.put(ADD).putLong(log.sequence).putLong(log.timestamp.getTime()).putInt(command.length).put(command);
+        write(body);
+        if(log.batch!=null)                     //when compacting, the other logs of the batch follow
+            batch(log.sequence,log.batchSize,log.batch);
+    }
+    synchronized void batch(long first,int size,String batchCommand) throws IOException{
+        byte[] command = batchCommand.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1+8+4+4+command.length);
+        body.put(BATCH).putLong(first).putInt(size).putInt(command.length).put(command);
+        write(body);
+    }
+    synchronized void remove(long[] sequences) throws IOException{
+        for(long sequence : sequences){
+            ByteBuffer body = ByteBuffer.allocate(1+8);
+            body.put(REMOVE).putLong(sequence);
+            write(body);
+        }
+    }
+    void write(ByteBuffer body) throws IOException{
+        body.flip();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer record = ByteBuffer.allocate(8+body.remaining());
+        record.putInt(body.remaining()).putInt((int)crc.getValue()).put(body).flip();
+        if(channel.size()+record.remaining()>SEGMENT_SIZE)
+            roll();
+        size += record.remaining();
+        while(record.hasRemaining())
+            channel.write(record);
+        dirty = true;
+        if(!syncScheduled){                     //group commit, one force for everything written until then
+            syncScheduled = true;
+            store.syncer.schedule(this::sync,GROUP_COMMIT_MS,TimeUnit.MILLISECONDS);
+        }
+    }
+    void roll() throws IOException{            //continues in a new segment
+        if(channel!=null){
+            channel.force(false);
+            channel.close();
+        }
+        int number = segments.isEmpty() ? 1 : segments.lastKey()+1;
+        Path segment = dir.resolve(String.format("%08d.seg",number));
+        channel = FileChannel.open(segment,StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.APPEND);
+        segments.put(number,segment);
+    }
+    Boolean needsCompaction(){
+        return size>=Math.max(COMPACT_GROWTH*compacted,COMPACT_MIN);
+    }
+
+    synchronized void compact(Iterable<Log> live) throws IOException{ //rewrites the journal as a checkpoint followed by live
+        if(channel!=null){
+            channel.force(false);
+            channel.close();
+        }
+        int number = segments.isEmpty() ? 1 : segments.lastKey()+1;
+        Path segment = dir.resolve(String.format("%08d.seg",number));
+        Path temporary = dir.resolve("compacting.tmp");
+        channel = FileChannel.open(temporary,StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+        Map<Integer,Path> old = new TreeMap<Integer,Path>(segments);
+        segments.clear();
+        segments.put(number,temporary);         //so a large compaction can't roll on top of itself
+        size = 0;
+        write(ByteBuffer.allocate(1).put(CHECKPOINT));
+        for(Log log : live)
+            append(log);
+        channel.force(false);
+        channel.close();
+        //the compacted segment only becomes visible once complete, older ones are deleted after
+        Files.move(temporary,segment,StandardCopyOption.ATOMIC_MOVE);
+        segments.put(number,segment);
+        Path last = segments.lastEntry().getValue();
+        channel = FileChannel.open(last,StandardOpenOption.WRITE,StandardOpenOption.APPEND);
+        for(Path file : old.values())
+            Files.deleteIfExists(file);
+        compacted = size;
+        dirty = false;
+    }
+
+    synchronized void sync(){
+        syncScheduled = false;
+        if(!dirty || !channel.isOpen())
+            return;
+        try{
+            channel.force(false);
+            dirty = false;
+        }
+        catch(IOException e){
+            System.out.println(e);
+        }
+    }
+
+    public synchronized void close(){
+        try{
+            channel.force(false);
+            channel.close();
+        }
+        catch(IOException e){
+            System.out.println(e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class JournalStore implements Closeable {  //journals of all users and the thread committing them
+    Path dir;
+    ScheduledExecutorService syncer;
+
+    JournalStore(Path root) throws IOException{
+        root = root.toAbsolutePath().normalize();
+        dir = root.resolveSibling(root.getFileName()+".journal");
+        Files.createDirectories(dir);
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable,"journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    Journal open(String username) throws IOException{
+        return new Journal(this,dir.resolve(username));
+    }
+
+    public void close(){
+        syncer.shutdown();              //delayed syncs still run
+    }
+}
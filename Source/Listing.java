@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
+
+/*
+ * Options of ls and the listing itself, which streams the directory instead of loading all of it.
+ *   ls [dir] [--offset n] [--limit n] [--sort name|time] [--reverse] [--filter glob]
+ * Entries are read one by one from Files.newDirectoryStream (or from the NamespaceIndex when it has the
+ * directory) and handed to the caller as they come, filtering is done on the way. Unsorted pages skip the first
+ * offset entries and stop after limit. Sorted pages keep only the first offset+limit entries in a heap while
+ * streaming, so only a listing without a limit holds the whole directory.
+ */
+public class Listing {
+    final static String FORMAT = "Invalid Format (format : ls [nameOfDirectory] [--offset n] [--limit n] [--sort name|time] [--reverse] [--filter glob])";
+
+    String dir;             //null for PWD
+    int offset;
+    int limit;              //-1 for all of them
+    String sort;            //null, name or time
+    Boolean reverse;
+    String filter;          //glob on the names, null for all of them
+    PathMatcher matcher;    //of filter, compiled by parse
+
+    Listing(){
+        offset = 0;
+        limit = -1;
+        reverse = false;
+    }
+
+    static Listing parse(String[] command) throws IllegalArgumentException{ //command[0] is ls
+        Listing listing = new Listing();
+        try{
+            for(int i=1; i<command.length; i++){
+                switch(command[i]){
+                    case "--offset":
+                        listing.offset = Integer.parseInt(command[++i]);
+                        break;
+                    case "--limit":
+                        listing.limit = Integer.parseInt(command[++i]);
+                        break;
+                    case "--sort":
+                        listing.sort = command[++i];
+                        if(!listing.sort.equals("name") && !listing.sort.equals("time"))
+                            throw new IllegalArgumentException(FORMAT);
+                        break;
+                    case "--reverse":
+                        listing.reverse = true;
+                        break;
+                    case "--filter":
+                        listing.filter = command[++i];
+                        listing.matcher = FileSystems.getDefault().getPathMatcher("glob:"+listing.filter);
+                        break;
+                    default:
+                        if(command[i].startsWith("--") || listing.dir!=null)
+                            throw new IllegalArgumentException(FORMAT);
+                        listing.dir = command[i];
+                }
+            }
+        }
+        catch(ArrayIndexOutOfBoundsException | NumberFormatException e){   //option without its value
+            throw new IllegalArgumentException(FORMAT);
+        }
+        catch(PatternSyntaxException e){                                    //--filter "[a"
+            throw new IllegalArgumentException(FORMAT+" : "+e.getDescription()+" in --filter");
+        }
+        if(listing.offset<0 || listing.limit<-1)
+            throw new IllegalArgumentException(FORMAT);
+        return listing;
+    }
+    Boolean paged(){
+        return offset>0 || limit!=-1;
+    }
+    int end(){                          //offset+limit, which may not fit in an int
+        return limit==-1 ? Integer.MAX_VALUE : (int)Math.min((long)offset+limit,Integer.MAX_VALUE);
+    }
+    String next(){                      //command listing the next page
+        List<String> command = new ArrayList<String>();
+        command.add("ls");
+        if(dir!=null)
+            command.add(dir);
+        command.add("--offset");
+        command.add(Integer.toString(end()));
+        command.add("--limit");
+        command.add(Integer.toString(limit));
+        if(sort!=null){
+            command.add("--sort");
+            command.add(sort);
+        }
+        if(reverse)
+            command.add("--reverse");
+        if(filter!=null){
+            command.add("--filter");
+            command.add(filter);
+        }
+        return Command.join(command.toArray(new String[0]));
+    }
+
+    static class Entry {
+        String name;
+        long time;
+        Entry(String name,long time){
+            this.name = name;
+            this.time = time;
+        }
+    }
+
+    Boolean list(Path directory,String[] indexed,Consumer<String> names) throws IOException{ //true if entries are left after the page
+        if(sort==null || (indexed!=null && sort.equals("name") && !reverse)){   //in the order they come, the index is sorted by name
+            int skipped = 0, sent = 0;
+            if(indexed!=null){
+                for(String name : indexed){
+                    if(matcher!=null && !matcher.matches(Paths.get(name)))
+                        continue;
+                    if(skipped++<offset)
+                        continue;
+                    if(sent++==limit)
+                        return true;
+                    names.accept(name);
+                }
+                return false;
+            }
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)){
+                for(Path path : stream){
+                    if(matcher!=null && !matcher.matches(path.getFileName()))
+                        continue;
+                    if(skipped++<offset)
+                        continue;
+                    if(sent++==limit)
+                        return true;
+                    names.accept(path.getFileName().toString());
+                }
+            }
+            return false;
+        }
+        Comparator<Entry> order = sort.equals("time") ? Comparator.<Entry>comparingLong(e -> e.time).thenComparing(e -> e.name)
+                                                      : Comparator.<Entry,String>comparing(e -> e.name);
+        if(reverse)
+            order = order.reversed();
+        //the first offset+limit entries, the last of them on top so it is the one dropped
+        int keep = end();
+        PriorityQueue<Entry> first = new PriorityQueue<Entry>(order.reversed());
+        int matched = 0;
+        if(indexed!=null){
+            for(String name : indexed){
+                if(matcher==null || matcher.matches(Paths.get(name))){
+                    matched++;
+                    keep(first,keep,new Entry(name,sort.equals("time") ? time(directory.resolve(name)) : 0));
+                }
+            }
+        }
+        else{
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)){
+                for(Path path : stream){
+                    if(matcher==null || matcher.matches(path.getFileName())){
+                        matched++;
+                        keep(first,keep,new Entry(path.getFileName().toString(),sort.equals("time") ? time(path) : 0));
+                    }
+                }
+            }
+        }
+        List<Entry> page = new ArrayList<Entry>(first);
+        Collections.sort(page,order);
+        for(int i=offset; i<page.size(); i++)
+            names.accept(page.get(i).name);
+        return matched>keep;
+    }
+    static void keep(PriorityQueue<Entry> first,int keep,Entry entry){
+        if(keep==0)
+            return;
+        if(first.size()<keep)
+            first.add(entry);
+        else if(first.comparator().compare(entry,first.peek())>0){ //comes before the last one kept
+            first.poll();
+            first.add(entry);
+        }
+    }
+    static long time(Path path){
+        try{
+            return Files.getLastModifiedTime(path).toMillis();
+        }
+        catch(IOException e){           //removed meanwhile
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Headless load test of a server on loopback : N simulated users, each a ClientEngine in binary mode on a
+ * virtual thread (platform threads before Java 21), log in, sync the homes of the next --sync users, then send a
+ * random mix of commands in their home with an exponential think time in between until --duration is over.
+ * Updates of the synced directories are applied to the local copies in --root by a second thread per user.
+ * The latency of a command is measured from sending its request to its DONE frame and reported per operation
+ * with the same histograms as the server's stats (see Metrics).
+ *   java LoadGenerator [--users 100] [--duration 30] [--think 100] [--mix mkdir=40,ls=30,mv=10,rm=20]
+ *                      [--sync 0] [--paths 16] [--host 127.0.0.1] [--port 8080] [--root LoadDir] [--prefix load]
+ */
+public class LoadGenerator {
+    final static int CONNECTING = 64;       //logins at once, more could overflow the accept backlog of the server
+    final static long TIMEOUT = 60;         //seconds without a response before a user gives up
+    final static String[] COMMANDS = {"mkdir","rm","mv","rn","cp","ls","log","stats"};
+
+    int users,fanout,paths,port;
+    long duration,think;                    //seconds, milliseconds
+    InetAddress host;
+    String root,prefix;
+    String[] ops;                           //of the mix, picked by their cumulative weight
+    int[] weights;
+
+    Metrics.Histogram[] latencies;          //nanoseconds, by index in Metrics.OPS
+    Metrics.Histogram logins;               //connect, username and binary handshake
+    LongAdder updates;                      //frames of synced directories pushed by the server
+    LongAdder errors;                       //responses with an exception, ERROR or Invalid Format
+    AtomicInteger failed;                   //users which couldn't log in or were disconnected
+    AtomicLong finished;                    //nanoTime of the last measured response, the end of the run for the rates
+    Semaphore connecting;
+    CountDownLatch loggedIn;
+    volatile long deadline;
+
+    LoadGenerator(){
+        latencies = new Metrics.Histogram[Metrics.OPS.length];
+        for(int i=0; i<latencies.length; i++)
+            latencies[i] = new Metrics.Histogram();
+        logins = new Metrics.Histogram();
+        updates = new LongAdder();
+        errors = new LongAdder();
+        failed = new AtomicInteger();
+        finished = new AtomicLong();
+        connecting = new Semaphore(CONNECTING);
+    }
+
+    void mix(String mix){                   //op=weight,op=weight..
+        String[] parts = mix.split(",");
+        ops = new String[parts.length];
+        weights = new int[parts.length];
+        int total = 0;
+        for(int i=0; i<parts.length; i++){
+            String[] part = parts[i].split("=");
+            if(!Arrays.asList(COMMANDS).contains(part[0]))
+                throw new IllegalArgumentException("Unknown command in mix : "+part[0]+" (one of "+String.join(" ",COMMANDS)+")");
+            ops[i] = part[0];
+            total += part.length>1 ? Integer.parseInt(part[1]) : 1;
+            weights[i] = total;
+        }
+    }
+    String username(int user){
+        return String.format("%s%04d",prefix,user);
+    }
+
+    void run() throws InterruptedException, IOException{
+        Files.createDirectories(Paths.get(root));
+        loggedIn = new CountDownLatch(users);
+        Thread[] threads = new Thread[users];
+        long started = System.nanoTime();
+        deadline = Long.MAX_VALUE;
+        for(int user=0; user<users; user++)
+            threads[user] = Threads.start(username(user),new SimulatedUser(this,user));
+        loggedIn.await();
+        long running = System.nanoTime();
+        deadline = running+TimeUnit.SECONDS.toNanos(duration);
+        System.out.printf("%d users logged in in %.1fs, %d failed, running for %ds\n",users-failed.get(),(running-started)/1e9,failed.get(),duration);
+        for(Thread thread : threads)
+            thread.join();
+        System.out.print(report(Math.max(finished.get()-running,1)/1e9));
+    }
+    void record(String command,long latency){
+        latencies[Metrics.op(Command.split(command)[0])].record(latency);
+        finished.accumulateAndGet(System.nanoTime(),Math::max);
+    }
+    String report(double seconds){
+        long commands = 0;
+        for(Metrics.Histogram latency : latencies)
+            commands += latency.count();
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Load : %d users, %.1fs, %d commands, %.1f commands/s, %d errors, %d updates received, %d users failed\n",
+                users,seconds,commands,commands/seconds,errors.sum(),updates.sum(),failed.get()));
+        report.append(String.format("%-8s %9s %9s %9s %9s %9s %9s %9s  (latency in us)\n","op","count","ops/s","p50","p90","p99","p99.9","max"));
+        line(report,"login",logins,seconds);
+        for(int i=0; i<latencies.length; i++)
+            line(report,Metrics.OPS[i],latencies[i],seconds);
+        return report.toString();
+    }
+    static void line(StringBuilder report,String op,Metrics.Histogram latency,double seconds){
+        long count = latency.count();
+        if(count==0)
+            return;
+        report.append(String.format("%-8s %9d %9.1f %9d %9d %9d %9d %9d\n",op,count,count/seconds,
+                latency.percentile(50)/1000,latency.percentile(90)/1000,latency.percentile(99)/1000,
+                latency.percentile(99.9)/1000,latency.max.get()/1000));
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = Arrays.asList(args);
+        LoadGenerator load = new LoadGenerator();
+        load.users = Integer.parseInt(option(options,"--users","100"));
+        load.duration = Long.parseLong(option(options,"--duration","30"));
+        load.think = Long.parseLong(option(options,"--think","100"));
+        load.fanout = Integer.parseInt(option(options,"--sync","0"));
+        load.paths = Integer.parseInt(option(options,"--paths","16"));
+        load.host = InetAddress.getByName(option(options,"--host","127.0.0.1"));
+        load.port = Integer.parseInt(option(options,"--port",Integer.toString(ClientEngine.PORT)));
+        load.root = option(options,"--root","LoadDir");
+        load.prefix = option(options,"--prefix","load");
+        load.mix(option(options,"--mix","mkdir=40,ls=30,mv=10,rm=20"));
+        if(load.fanout>=load.users)
+            load.fanout = load.users-1;
+        Threads.virtual = true;
+        if(!Threads.virtualSupported())
+            System.out.println("Virtual threads need Java 21 or newer, using platform threads");
+        load.run();
+    }
+    static String option(List<String> options,String name,String otherwise){   //value after name, otherwise if it is missing
+        int option = options.indexOf(name);
+        return option!=-1 && option+1<options.size() ? options.get(option+1) : otherwise;
+    }
+}
+
+/*
+ * One user of a LoadGenerator, commands one at a time on this thread, frames read on another (updates of synced
+ * directories arrive at any time, also while thinking). The reader hands the DONE frames over through done.
+ */
+class SimulatedUser implements Runnable {
+    final static Frame CLOSED = new Frame(Frame.Opcode.QUIT,0);
+
+    LoadGenerator load;
+    String username;
+    int user;
+    ClientEngine engine;
+    Random random;
+    BlockingQueue<Frame> done;
+
+    SimulatedUser(LoadGenerator load,int user){
+        this.load = load;
+        this.user = user;
+        username = load.username(user);
+        engine = new ClientEngine(load.root,line -> {});
+        engine.files = false;
+        random = new Random(user);
+        done = new LinkedBlockingQueue<Frame>();
+    }
+
+    @Override
+    public void run(){
+        try{
+            if(!login()){
+                load.failed.incrementAndGet();
+                load.loggedIn.countDown();
+                return;
+            }
+            Threads.start(username+"-reader",this::read);
+            load.loggedIn.countDown();
+            load.loggedIn.await();
+            request("set snapshot on");
+            if(load.fanout>0){                  //homes of the next users, their commands are pushed to us
+                String[] sync = new String[load.fanout+1];
+                sync[0] = "sync";
+                for(int i=1; i<=load.fanout; i++)
+                    sync[i] = load.username((user+i)%load.users);
+                String command = Command.join(sync);
+                long latency = request(command);
+                if(latency<0){
+                    load.failed.incrementAndGet();
+                    return;
+                }
+                load.record(command,latency);
+            }
+            while(System.nanoTime()<load.deadline){
+                if(load.think>0)
+                    Thread.sleep((long)(-load.think*Math.log(1-random.nextDouble())));
+                if(System.nanoTime()>=load.deadline)
+                    break;
+                String command = command();
+                long latency = request(command);
+                if(latency<0){
+                    load.failed.incrementAndGet();
+                    return;
+                }
+                load.record(command,latency);
+            }
+            request("quit");
+        }
+        catch(InterruptedException e){
+            load.failed.incrementAndGet();
+        }
+        finally{
+            if(engine.isConnected)
+                engine.close();
+        }
+    }
+    Boolean login() throws InterruptedException{
+        load.connecting.acquire();
+        long start = System.nanoTime();
+        try{
+            if(!engine.connect(load.host,load.port,username))
+                return false;                   //username taken
+            engine.binary();
+            load.logins.record(System.nanoTime()-start);
+            return true;
+        }
+        catch(IOException e){
+            return false;
+        }
+        finally{
+            load.connecting.release();
+        }
+    }
+    void read(){
+        try{
+            Frame frame;
+            while((frame = engine.readFrame())!=null){
+                if(frame.opcode==Frame.Opcode.DONE)
+                    done.add(frame);
+                else if(frame.opcode!=Frame.Opcode.LINE){   //sync_* of an update, or of the tree sent for a sync request
+                    if(frame.requestId==0 && frame.opcode!=Frame.Opcode.QUIT)
+                        load.updates.increment();
+                    engine.process(frame);
+                }
+            }
+        }
+        catch(IOException e){
+            //disconnected, the user sees CLOSED
+        }
+        done.add(CLOSED);
+    }
+    long request(String command) throws InterruptedException{  //nanoseconds until its DONE, -1 if the session ended
+        long start = System.nanoTime();
+        int id = engine.send(command);
+        while(true){
+            Frame frame = done.poll(LoadGenerator.TIMEOUT,TimeUnit.SECONDS);
+            if(frame==null || frame==CLOSED)
+                return -1;
+            if(frame.requestId!=id)
+                continue;
+            String response = frame.args.length==0 ? "" : frame.args[0];
+            if(response.startsWith("java.") || response.startsWith("ERROR") || response.startsWith("Invalid Format"))
+                load.errors.increment();
+            return System.nanoTime()-start;
+        }
+    }
+
+    String command(){                   //next command of the mix, on paths of a few levels in the home
+        int pick = random.nextInt(load.weights[load.weights.length-1]), i = 0;
+        while(load.weights[i]<=pick)
+            i++;
+        switch(load.ops[i]){
+            case "mkdir":
+            case "rm":
+                return load.ops[i]+" "+path();
+            case "mv":
+                return "mv "+path()+" "+path();
+            case "rn":
+                return "rn "+path()+" r"+random.nextInt(load.paths);
+            case "cp":
+                return "cp -r "+path()+" "+path();
+            default:                    //ls, log, stats
+                return load.ops[i];
+        }
+    }
+    String path(){
+        String path = "d"+random.nextInt(load.paths);
+        return random.nextBoolean() ? path : path+"/d"+random.nextInt(load.paths);
+    }
+}
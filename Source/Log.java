@@ -0,0 +1,32 @@
+import java.sql.Timestamp;
+
+public class Log {
+    String command; //handles text commands for adding and removing from log
+    Timestamp timestamp; //used for log display format
+    String trashed;      //trash entry of a rm in trash mode, undo moves it back
+    String[] tokens;     //command split once, operation and operands
+    long sequence;       //position in the session, later logs have a higher one
+    String batch;        //bulk command logged as batchSize logs from this one on (see LogStore), null for the others
+    int batchSize;
+    
+    Log(String _command){ 
+        command = _command;
+        tokens = Command.split(command);
+        timestamp = new Timestamp(System.currentTimeMillis()); //assigns current time-stamp 
+    }
+    @Override
+    public String toString() {
+        return "["+timestamp+"]: "+command; //output formating for time - stamp 
+    }
+    public boolean isDependentOn(Log logB){ //checks if this Log A depends on Log B, see DependencyIndex
+        if(sequence < logB.sequence){   //commands occurring before cannot be causally dependent on the commands occuring after them
+            return false;
+        }
+        for(DependencyIndex.Rule rule : DependencyIndex.rules(logB.tokens[0])){
+            if(rule.dependentOp.equals(tokens[0]) && rule.arg<logB.tokens.length && rule.dependentArg<tokens.length
+                    && rule.matches(logB.tokens[rule.arg],tokens[rule.dependentArg]))
+                return true;
+        }
+        return false;
+    }
+}
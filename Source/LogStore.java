@@ -0,0 +1,198 @@
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * The logs of one session without an object per log : columns of primitives in chunks of CHUNK entries.
+ * A log is an opcode byte, the dictionary ids of its (at most two) operand paths, its time and its sequence,
+ * 25 bytes instead of a Log with its command string, tokens and Timestamp. Log objects are only made when
+ * one is needed (get(), iterator()), printing reads the columns directly.
+ * The logs of a bulk command (see Bulk) have consecutive sequences and are kept as a batch : printed as one entry,
+ * the command of the first one, and undone together (see DependencyIndex.cascade).
+ */
+public class LogStore implements Iterable<Log> {
+    final static String[] OPS = {"mkdir","rm","mv","rn","ls","cp"};
+    final static int CHUNK_BITS = 12, CHUNK = 1<<CHUNK_BITS;
+
+    static class Chunk {
+        byte[] ops = new byte[CHUNK];
+        int[] first = new int[CHUNK];       //path ids of the operands, -1 if missing
+        int[] second = new int[CHUNK];
+        long[] times = new long[CHUNK];
+        long[] sequences = new long[CHUNK];
+    }
+
+    PathDictionary paths;
+    List<Chunk> chunks;
+    int size;
+    Map<Long,String> trashed;               //trash entry of the few rm done in trash mode, by sequence
+    TreeMap<Long,Batch> batches;            //by sequence of their first log
+
+    static class Batch {
+        int size;                           //logs in the batch, from the first one on
+        String command;                     //bulk command as the client sent it
+
+        Batch(int size,String command){
+            this.size = size;
+            this.command = command;
+        }
+    }
+
+    LogStore(PathDictionary paths){
+        this.paths = paths;
+        chunks = new ArrayList<Chunk>();
+        size = 0;
+        trashed = new HashMap<Long,String>();
+        batches = new TreeMap<Long,Batch>();
+    }
+
+    static byte opcode(String op){
+        for(byte i=0; i<OPS.length; i++){
+            if(OPS[i].equals(op))
+                return i;
+        }
+        throw new IllegalArgumentException("Can't log "+op);
+    }
+
+    int add(long sequence,long time,String command,String trashedEntry){   //returns the index of the log
+        String[] tokens = Command.split(command);
+        if(size==chunks.size()*CHUNK)
+            chunks.add(new Chunk());
+        Chunk chunk = chunks.get(size>>>CHUNK_BITS);
+        int i = size & (CHUNK-1);
+        chunk.ops[i] = opcode(tokens[0]);
+        chunk.first[i] = tokens.length>1 ? paths.intern(tokens[1]) : -1;
+        chunk.second[i] = tokens.length>2 ? paths.intern(tokens[2]) : -1;
+        chunk.times[i] = time;
+        chunk.sequences[i] = sequence;
+        if(trashedEntry!=null)
+            trashed.put(sequence,trashedEntry);
+        return size++;
+    }
+
+    int size(){
+        return size;
+    }
+    byte op(int index){
+        return chunks.get(index>>>CHUNK_BITS).ops[index & (CHUNK-1)];
+    }
+    int path(int index,int arg){            //path id of operand 1 or 2, -1 if missing
+        Chunk chunk = chunks.get(index>>>CHUNK_BITS);
+        return arg==1 ? chunk.first[index & (CHUNK-1)] : arg==2 ? chunk.second[index & (CHUNK-1)] : -1;
+    }
+    long time(int index){
+        return chunks.get(index>>>CHUNK_BITS).times[index & (CHUNK-1)];
+    }
+    long sequence(int index){
+        return chunks.get(index>>>CHUNK_BITS).sequences[index & (CHUNK-1)];
+    }
+    String trashed(int index){
+        return trashed.isEmpty() ? null : trashed.get(sequence(index));
+    }
+
+    void batch(long first,int size,String command){    //the logs from sequence first on are one bulk command
+        batches.put(first,new Batch(size,command));
+    }
+    long[] batchOf(long sequence){          //first and last sequence of the batch of a log, null if it is in none
+        Map.Entry<Long,Batch> batch = batches.floorEntry(sequence);
+        if(batch==null || sequence>=batch.getKey()+batch.getValue().size)
+            return null;
+        return new long[]{batch.getKey(),batch.getKey()+batch.getValue().size-1};
+    }
+    Boolean hidden(int index){              //in a batch but not its first log, printed with the first one
+        if(batches.isEmpty())
+            return false;
+        long[] batch = batchOf(sequence(index));
+        return batch!=null && batch[0]!=sequence(index);
+    }
+
+    int find(long sequence){                //index of the log with sequence, sequences grow with the index
+        int low = 0, high = size-1;
+        while(low<=high){
+            int middle = (low+high)>>>1;
+            long found = sequence(middle);
+            if(found<sequence)
+                low = middle+1;
+            else if(found>sequence)
+                high = middle-1;
+            else
+                return middle;
+        }
+        return -1;
+    }
+
+    String command(int index){
+        int first = path(index,1), second = path(index,2);
+        String op = OPS[op(index)];
+        if(first==-1)
+            return op;
+        if(second==-1)
+            return Command.join(op,paths.path(first));
+        return Command.join(op,paths.path(first),paths.path(second));
+    }
+    void print(int index,Appendable out) throws IOException{   //as Log.toString()
+        out.append('[').append(new Timestamp(time(index)).toString()).append("]: ");
+        Batch batch = batches.isEmpty() ? null : batches.get(sequence(index));
+        if(batch==null)
+            out.append(command(index));
+        else
+            out.append(batch.command).append(" (").append(Integer.toString(batch.size)).append(" operations)");
+    }
+
+    Log get(int index){
+        Log log = new Log(command(index));
+        log.timestamp = new Timestamp(time(index));
+        log.sequence = sequence(index);
+        log.trashed = trashed(index);
+        Batch batch = batches.isEmpty() ? null : batches.get(log.sequence);
+        if(batch!=null){
+            log.batch = batch.command;
+            log.batchSize = batch.size;
+        }
+        return log;
+    }
+    public Iterator<Log> iterator(){
+        return new Iterator<Log>(){
+            int next = 0;
+            public boolean hasNext(){
+                return next<size;
+            }
+            public Log next(){
+                return get(next++);
+            }
+        };
+    }
+
+    void removeAll(long[] sequences){       //sequences sorted, keeps the order of the other logs
+        int removed = 0, write = 0;
+        for(int read=0; read<size; read++){
+            long sequence = sequence(read);
+            if(removed<sequences.length && sequences[removed]==sequence){
+                removed++;
+                trashed.remove(sequence);
+                batches.remove(sequence);       //batches are undone as a whole
+                continue;
+            }
+            if(write!=read)
+                copy(read,write);
+            write++;
+        }
+        size = write;
+        while(chunks.size()>(size+CHUNK-1)>>>CHUNK_BITS)   //drops the chunks left empty
+            chunks.remove(chunks.size()-1);
+    }
+    void copy(int from,int to){
+        Chunk source = chunks.get(from>>>CHUNK_BITS), target = chunks.get(to>>>CHUNK_BITS);
+        int i = from & (CHUNK-1), j = to & (CHUNK-1);
+        target.ops[j] = source.ops[i];
+        target.first[j] = source.first[i];
+        target.second[j] = source.second[i];
+        target.times[j] = source.times[i];
+        target.sequences[j] = source.sequences[i];
+    }
+}
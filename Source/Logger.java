@@ -0,0 +1,169 @@
+import java.io.IOException;
+
+public class Logger {
+    String username; //used to store and handle the username of client
+    LogStore logs; //used to store all the logs, compactly (see LogStore)
+    ServerEvents events;    //log pane updates are published here
+    int published;          //number of logs already published
+    Boolean rewritten;      //logs were deleted since the last update, the whole list has to be published again
+    DependencyIndex dependencies;   //finds the logs to undo with a log
+    long sequence;          //sequence of the last log added
+    Journal journal;        //keeps the logs across sessions (--journal), null to keep them in memory only
+
+    public Logger(String _username, ServerEvents _events){ //Initializing above created variables
+        this(_username,_events,null);
+    }
+    public Logger(String _username, ServerEvents _events, Journal _journal){
+        username = _username;
+        logs = new LogStore(new PathDictionary());  //paths of this user only, freed at logout
+        events = _events;
+        published = 0;
+        rewritten = false;
+        dependencies = new DependencyIndex(logs);
+        sequence = 0;
+        journal = _journal;
+        events.logOpened(username);
+        if(journal!=null){      //logs of the previous sessions
+            for(Log log : journal.recovered){
+                dependencies.add(logs.add(log.sequence,log.timestamp.getTime(),log.command,null));
+                if(log.batch!=null)
+                    logs.batch(log.sequence,log.batchSize,log.batch);
+                sequence = log.sequence;
+            }
+            journal.recovered = null;
+        }
+    }
+    public void exit(){
+        if(journal!=null)       //compacted while it grows, not on every logout
+            journal.close();
+        events.logClosed(username);
+    }
+    public void add(String command){ //adds new log to the LogStore called logs
+        add(command,null);
+    }
+    public void add(String command,String trashed){
+        int index = logs.add(++sequence,System.currentTimeMillis(),command,trashed);
+        dependencies.add(index);
+        if(journal!=null){
+            try{
+                journal.append(logs.get(index));
+                if(journal.needsCompaction())
+                    journal.compact(logs);
+            }
+            catch(IOException e){
+                events.print(e.toString()+"\n");
+            }
+        }
+    }
+    public void addBatch(String command,UndoPlan plan){    //the steps of a bulk command once applied (see Bulk), as one entry
+        long first = sequence+1;
+        for(UndoPlan.Step step : plan.steps)
+            add(step.toString(),step.op.equals("rm") && plan.directoryManager.trash!=null ? step.undone : null);
+        if(plan.steps.size()<2)
+            return;
+        logs.batch(first,plan.steps.size(),command);
+        if(journal!=null){
+            try{
+                journal.batch(first,plan.steps.size(),command);
+            }
+            catch(IOException e){
+                events.print(e.toString()+"\n");
+            }
+        }
+    }
+    public UndoPlan undoPlan(int index,DirectoryManager directoryManager){ //complementary commands of the log and of all the logs causally dependent on it
+        long[] undone = dependencies.cascade(index);    //in the order they were logged
+        UndoPlan plan = new UndoPlan(directoryManager,undone);
+        for(int i=undone.length-1; i>=0; i--){          //latest log is undone first
+            int undoneIndex = logs.find(undone[i]);
+            String first = logs.path(undoneIndex,1)==-1 ? null : logs.paths.path(logs.path(undoneIndex,1));
+            String second = logs.path(undoneIndex,2)==-1 ? null : logs.paths.path(logs.path(undoneIndex,2));
+            switch(LogStore.OPS[logs.op(undoneIndex)]){
+                case "mkdir":
+                    plan.add("rm",first,null); //mkdir can be undone by rm
+                    break;
+                case "rm":
+                    if(logs.trashed(undoneIndex)!=null)    //trash mode, the removed directory is moved back with its contents
+                        plan.add("restore",logs.trashed(undoneIndex),first);
+                    else
+                        plan.add("mkdir",first,null); //rm can be undone by mkdir
+                    break;
+                case "mv":
+                    plan.add("mv",second,first); //mv a to b is undone by mv b to a
+                    break;
+                case "rn":
+                    plan.add("rn",second,first); //rn a to b is undone by rn b to a
+                    break;
+                case "cp":
+                    plan.add("rm",second,null); //cp a to b is undone by rm b
+                    break;
+                case "ls":
+                    break; //ls does not warrant an undo operation
+                default:
+            }
+        }
+        plan.merge();
+        return plan;
+    }
+    public void delete(long[] removed){ //deletes the logs undone by a plan, once it was applied
+        for(long removedSequence : removed)
+            dependencies.remove(logs.find(removedSequence));
+        logs.removeAll(removed);
+        rewritten = true;
+        if(journal!=null){
+            try{
+                journal.remove(removed);
+            }
+            catch(IOException e){
+                events.print(e.toString()+"\n");
+            }
+        }
+    }
+    public String printLogs(){ 	//formats and returns string to print on console
+        StringBuilder log = new StringBuilder(64+logs.size()*64);
+        try{
+            printLogs(log);
+        }
+        catch(IOException e){
+            //not thrown by StringBuilder
+        }
+        return log.toString();
+    }
+    public void printLogs(Appendable out) throws IOException{  //streams the logs from the store
+        out.append("Logs:-\n");
+        for(int i=0; i<logs.size(); i++){
+            if(!logs.hidden(i))         //printed with the first log of its batch
+                printLog(i,out);
+        }
+    }
+    String printLog(int i){
+        StringBuilder log = new StringBuilder();
+        try{
+            printLog(i,log);
+        }
+        catch(IOException e){
+            //not thrown by StringBuilder
+        }
+        return log.toString();
+    }
+    void printLog(int i,Appendable out) throws IOException{    //same as String.format("%3d. %s %s\n",i,username,log)
+        String number = Integer.toString(i);
+        for(int pad=number.length(); pad<3; pad++)
+            out.append(' ');
+        out.append(number).append(". ").append(username).append(' ');
+        logs.print(i,out);
+        out.append('\n');
+    }
+    public void updateLogPane(){    //publishes only what changed since the last call
+        if(rewritten){
+            events.logRewritten(username,printLogs());
+            rewritten = false;
+            published = logs.size();
+        }
+        while(published<logs.size()){
+            if(!logs.hidden(published))
+                events.logAppended(username,printLog(published));
+            published++;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+
+/*
+ * Hash tree of a synced directory, built only from the names of the directories and how they nest.
+ * The hash of a directory covers its name and the names and hashes of its children in name order, so two copies
+ * with the same root hash are the same tree and two that differ only differ below the children whose hash differs.
+ * The server hashes its tree (from the disk or from SyncState), the client its local copy, and a reconnecting client
+ * only walks down and fetches the subtrees whose hashes differ (see resync in ServerThread).
+ */
+public class MerkleTree {
+    final static int HASH_BYTES = 16;   //of SHA-256, sent as 32 hex digits
+
+    String name;
+    byte[] hash;
+    TreeMap<String,MerkleTree> children;
+
+    MerkleTree(String name){
+        this.name = name;
+        children = new TreeMap<String,MerkleTree>();
+    }
+
+    static MerkleTree scan(File dir) throws IOException{   //the directories below dir on the disk
+        Deque<MerkleTree> open = new ArrayDeque<MerkleTree>(); //directory being walked and the ones above it
+        MerkleTree[] root = new MerkleTree[1];
+        Files.walkFileTree(dir.toPath(),new SimpleFileVisitor<Path>(){
+            @Override
+            public FileVisitResult preVisitDirectory(Path path,BasicFileAttributes attributes){
+                MerkleTree node = new MerkleTree(open.isEmpty() ? dir.getName() : path.getFileName().toString());
+                if(open.isEmpty())
+                    root[0] = node;
+                else
+                    open.peek().children.put(node.name,node);
+                open.push(node);
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path path,IOException e){
+                open.pop().digest();            //children are done
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFileFailed(Path path,IOException e){
+                return FileVisitResult.CONTINUE;    //deleted while walking
+            }
+        });
+        if(root[0]==null)
+            throw new IOException(dir+" is not a directory");
+        return root[0];
+    }
+    static MerkleTree of(String name,NavigableSet<String> paths){   //paths relative to the root as in SyncState.entries
+        MerkleTree root = new MerkleTree(name);
+        Map<String,MerkleTree> nodes = new HashMap<String,MerkleTree>();
+        for(String path : paths){               //parents sort before their children
+            int separator = path.lastIndexOf('/');
+            MerkleTree parent = separator==-1 ? root : nodes.get(path.substring(0,separator));
+            MerkleTree node = new MerkleTree(path.substring(separator+1));
+            parent.children.put(node.name,node);
+            nodes.put(path,node);
+        }
+        for(String path : paths.descendingSet())    //children sort after their parent, so they are hashed first
+            nodes.get(path).digest();
+        root.digest();
+        return root;
+    }
+
+    void digest(){
+        MessageDigest sha;
+        try{
+            sha = MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException e){     //every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+        sha.update(name.getBytes(StandardCharsets.UTF_8));
+        for(MerkleTree child : children.values()){
+            sha.update((byte)0);                //so names can't run into each other
+            sha.update(child.hash);
+        }
+        hash = Arrays.copyOf(sha.digest(),HASH_BYTES);
+    }
+    String hex(){
+        StringBuilder text = new StringBuilder();
+        for(byte b : hash)
+            text.append(String.format("%02x",b));
+        return text.toString();
+    }
+
+    MerkleTree find(String path){               //path below this one, "a/b", null if there is none
+        MerkleTree node = this;
+        for(String segment : DependencyIndex.segments(path)){
+            node = node.children.get(segment);
+            if(node==null)
+                return null;
+        }
+        return node;
+    }
+    List<String> childHashes(){                 //name and hash of each child, as sent in sync_hashes
+        List<String> hashes = new ArrayList<String>();
+        for(MerkleTree child : children.values()){
+            hashes.add(child.name);
+            hashes.add(child.hex());
+        }
+        return hashes;
+    }
+}
@@ -0,0 +1,212 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * Counters and latency histograms of the whole server, for capacity planning.
+ * Every command run by ServerThread.process is timed into the histogram of its operation, from the moment it is
+ * handled until its response is queued. Recording is a few atomic adds and never locks, so sessions on any number
+ * of threads share one Metrics. Read by the stats command, the MBean DirectoryServer:type=Metrics and the
+ * periodic dump on the console (--stats seconds), which also shows the rate of each operation since the last dump.
+ */
+public class Metrics implements MetricsMBean {
+    final static String[] OPS = {"mkdir","rm","mv","rn","cp","ls","sync","dsync","log","set",
+                                 "resync","hashes","subtree","data","fetch","stats","quit","other"};
+    final static Metrics SHARED = new Metrics();    //after OPS, which it is sized by
+
+    /*
+     * HDR style histogram : values below 2^SUB_BITS have a bucket each, above that every power of two is split
+     * into 2^SUB_BITS buckets, so a value is known within 1/2^SUB_BITS (3%) whatever its magnitude and the
+     * whole range of a long fits in under 2000 counters.
+     */
+    static class Histogram {
+        final static int SUB_BITS = 5, SUB = 1<<SUB_BITS;
+
+        AtomicLongArray counts;
+        LongAdder count;
+        AtomicLong max;
+
+        Histogram(){
+            counts = new AtomicLongArray((64-SUB_BITS+1)*SUB);
+            count = new LongAdder();
+            max = new AtomicLong();
+        }
+
+        static int bucket(long value){
+            if(value<SUB)
+                return (int)Math.max(value,0);
+            int exponent = 63-Long.numberOfLeadingZeros(value);    //>= SUB_BITS
+            int sub = (int)(value>>>(exponent-SUB_BITS)) & (SUB-1);
+            return (exponent-SUB_BITS+1)*SUB+sub;
+        }
+        static long highest(int bucket){        //largest value counted in bucket
+            if(bucket<SUB)
+                return bucket;
+            int shift = bucket/SUB-1;
+            long low = (long)(SUB+bucket%SUB)<<shift;
+            return low+(1L<<shift)-1;
+        }
+
+        void record(long value){
+            counts.incrementAndGet(bucket(value));
+            count.increment();
+            max.accumulateAndGet(value,Math::max);
+        }
+        long count(){
+            return count.sum();
+        }
+        long percentile(double percentile){     //value at or below which that percentage of the values are
+            long total = count.sum();
+            if(total==0)
+                return 0;
+            long rank = Math.max(1,(long)Math.ceil(percentile/100*total)), seen = 0;
+            for(int i=0; i<counts.length(); i++){
+                seen += counts.get(i);
+                if(seen>=rank)
+                    return Math.min(highest(i),max.get());
+            }
+            return max.get();
+        }
+    }
+
+    long started;
+    Histogram[] latencies;              //nanoseconds, by index in OPS
+    Histogram treeSizes;                //entries (directories and files) of the trees sent to new subscribers
+    LongAdder bytesSent;                //written to the sockets of the sessions
+    LongAdder linesSent;                //lines (or LINE frames) of the responses
+    LongAdder updatesForwarded;         //deltas and trees of synced directories queued for a session
+    LongAdder updatesDropped;           //deltas not sent to a slow client (see ServerThread.update)
+    AtomicInteger sessions;
+    long[] dumped;                      //counts at the last dump, for the rates
+    long dumpedAt;
+    ScheduledExecutorService dumper;
+
+    Metrics(){
+        started = System.nanoTime();
+        latencies = new Histogram[OPS.length];
+        for(int i=0; i<OPS.length; i++)
+            latencies[i] = new Histogram();
+        treeSizes = new Histogram();
+        bytesSent = new LongAdder();
+        linesSent = new LongAdder();
+        updatesForwarded = new LongAdder();
+        updatesDropped = new LongAdder();
+        sessions = new AtomicInteger();
+        dumped = new long[OPS.length];
+        dumpedAt = started;
+    }
+
+    static int op(String op){           //index in OPS, other for unknown commands so garbage can't add histograms
+        for(int i=0; i<OPS.length-1; i++){
+            if(OPS[i].equals(op))
+                return i;
+        }
+        return OPS.length-1;
+    }
+    void command(String op,long nanos){
+        latencies[op(op)].record(nanos);
+    }
+
+    String report(){                    //counters, then a line per operation used so far, rates since the start
+        return report(null);
+    }
+    synchronized String report(long[] since){  //rates since the counts in since (and dumpedAt) if not null
+        long now = System.nanoTime();
+        double seconds = Math.max((now-(since==null ? started : dumpedAt))/1e9,1e-3);
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("Stats : up %ds, %d sessions, %d commands, %d bytes and %d lines sent, %d updates forwarded, %d dropped\n",
+                getUptimeSeconds(),sessions.get(),getCommands(),bytesSent.sum(),linesSent.sum(),updatesForwarded.sum(),updatesDropped.sum()));
+        report.append(String.format("%-8s %9s %9s %9s %9s %9s %9s %9s  (latency in us)\n","op","count","ops/s","p50","p90","p99","p99.9","max"));
+        for(int i=0; i<OPS.length; i++){
+            Histogram latency = latencies[i];
+            long count = latency.count();
+            if(count==0)
+                continue;
+            double rate = (count-(since==null ? 0 : since[i]))/seconds;
+            report.append(String.format("%-8s %9d %9.1f %9d %9d %9d %9d %9d\n",OPS[i],count,rate,
+                    latency.percentile(50)/1000,latency.percentile(90)/1000,latency.percentile(99)/1000,
+                    latency.percentile(99.9)/1000,latency.max.get()/1000));
+        }
+        if(treeSizes.count()>0)
+            report.append(String.format("synced trees : %d sent, entries p50 %d p99 %d max %d\n",treeSizes.count(),
+                    treeSizes.percentile(50),treeSizes.percentile(99),treeSizes.max.get()));
+        return report.toString();
+    }
+
+    void register(){                    //JMX, once per JVM
+        try{
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,new ObjectName("DirectoryServer:type=Metrics"));
+        }
+        catch(InstanceAlreadyExistsException e){
+            //server started again in the same JVM
+        }
+        catch(JMException e){
+            System.out.println(e);
+        }
+    }
+    synchronized void dumpEvery(long seconds,ServerEvents events){ //--stats, prints the report with the rates of the last period
+        if(dumper!=null || seconds<=0)
+            return;
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable,"stats-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> events.print(dump()),seconds,seconds,TimeUnit.SECONDS);
+    }
+    synchronized String dump(){
+        String report = report(dumped);
+        for(int i=0; i<OPS.length; i++)
+            dumped[i] = latencies[i].count();
+        dumpedAt = System.nanoTime();
+        return report;
+    }
+    synchronized void close(){
+        if(dumper!=null)
+            dumper.shutdown();
+        dumper = null;
+    }
+
+    /* --- MetricsMBean --- */
+    public long getUptimeSeconds(){
+        return (System.nanoTime()-started)/1000000000L;
+    }
+    public int getActiveSessions(){
+        return sessions.get();
+    }
+    public long getCommands(){
+        long commands = 0;
+        for(Histogram latency : latencies)
+            commands += latency.count();
+        return commands;
+    }
+    public long getBytesSent(){
+        return bytesSent.sum();
+    }
+    public long getLinesSent(){
+        return linesSent.sum();
+    }
+    public long getUpdatesForwarded(){
+        return updatesForwarded.sum();
+    }
+    public long getUpdatesDropped(){
+        return updatesDropped.sum();
+    }
+    public String[] getReport(){
+        return report().split("\n");
+    }
+    public long getCount(String op){
+        return latencies[op(op)].count();
+    }
+    public long getPercentileMicros(String op,double percentile){
+        return latencies[op(op)].percentile(percentile)/1000;
+    }
+}
@@ -0,0 +1,16 @@
+/*
+ * JMX view of Metrics, registered as DirectoryServer:type=Metrics (jconsole, or any JMX client).
+ * Latencies are in microseconds.
+ */
+public interface MetricsMBean {
+    long getUptimeSeconds();
+    int getActiveSessions();
+    long getCommands();
+    long getBytesSent();
+    long getLinesSent();
+    long getUpdatesForwarded();
+    long getUpdatesDropped();
+    String[] getReport();                       //same lines as the stats command
+    long getCount(String op);
+    long getPercentileMicros(String op,double percentile);
+}
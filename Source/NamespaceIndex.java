@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+ * In-memory tree of the names below the server root, shared by all sessions (enabled with --index).
+ * A directory is listed once, the first time something inside it is looked up, and is then watched by the
+ * watch hub so changes made outside of the server reach the index as well. Changes made through a
+ * DirectoryManager are applied right away, the watch events for them find the index already up to date.
+ * When the hub unwatches a directory to stay under WatchHub.MAX_INDEXED, its listing is dropped here as well.
+ */
+public class NamespaceIndex {
+
+    static class Node {
+        Boolean directory;
+        volatile Map<String,Node> children;     //null until the directory is listed, sorted by name
+
+        Node(Boolean directory){
+            this.directory = directory;
+        }
+    }
+
+    Path root;
+    Node top;
+    WatchHub watchHub;                          //tells the index about changes made outside of the server
+
+    NamespaceIndex(Path root,WatchHub watchHub){
+        this.root = root.toAbsolutePath().normalize();
+        this.watchHub = watchHub;
+        top = new Node(true);
+    }
+
+    Path relative(Path path){                   //path below root, null if it is outside of it
+        path = path.toAbsolutePath().normalize();
+        if(!path.startsWith(root))
+            return null;
+        return root.relativize(path);
+    }
+
+    Map<String,Node> children(Path dir,Node node) throws IOException{  //lists the directory the first time
+        Map<String,Node> children = node.children;
+        if(children!=null)
+            return children;
+        List<Path> unwatched;
+        synchronized(node){                     //events for the directory wait until it is listed
+            if(node.children!=null)
+                return node.children;
+            unwatched = watchHub.watch(dir);    //before listing, so no change gets lost in between
+            children = new ConcurrentSkipListMap<String,Node>();
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+                for(Path child : stream){
+                    BasicFileAttributes attributes = Files.readAttributes(child,BasicFileAttributes.class,LinkOption.NOFOLLOW_LINKS);
+                    children.put(child.getFileName().toString(),new Node(attributes.isDirectory()));
+                }
+            }
+            node.children = children;
+        }
+        for(Path evicted : unwatched)           //outside of node, invalidate locks the evicted one
+            invalidate(evicted);
+        return children;
+    }
+
+    Node lookup(Path path) throws IOException{  //node of path, loading what is missing, null if it doesn't exist
+        Path relative = relative(path);
+        if(relative==null)
+            return null;
+        Node node = top;
+        Path dir = root;
+        for(Path segment : relative){
+            if(segment.toString().isEmpty())    //root itself
+                continue;
+            if(!node.directory)
+                return null;
+            node = children(dir,node).get(segment.toString());
+            if(node==null)
+                return null;
+            dir = dir.resolve(segment);
+        }
+        return node;
+    }
+
+    Boolean exists(Path path) throws IOException{
+        return lookup(path)!=null;
+    }
+
+    String[] list(Path dir) throws IOException{    //names inside dir, null if it isn't a directory
+        Node node = lookup(dir);
+        if(node==null || !node.directory)
+            return null;
+        return children(dir.toAbsolutePath().normalize(),node).keySet().toArray(new String[0]);
+    }
+
+    Node loadedParent(Path path){               //node of the parent of path if it was listed already, null otherwise
+        Path relative = relative(path);
+        if(relative==null || relative.getFileName()==null || relative.toString().isEmpty())
+            return null;
+        Node node = top;
+        Path parent = relative.getParent();
+        if(parent!=null){
+            for(Path segment : parent){
+                Map<String,Node> children = node.children;
+                if(children==null || (node = children.get(segment.toString()))==null)
+                    return null;
+            }
+        }
+        return node;
+    }
+
+    void created(Path path,Boolean directory){
+        Node parent = loadedParent(path);
+        if(parent==null)
+            return;
+        synchronized(parent){
+            if(parent.children!=null)
+                parent.children.putIfAbsent(path.getFileName().toString(),new Node(directory));
+        }
+    }
+    void deleted(Path path){
+        Node parent = loadedParent(path);
+        if(parent==null)
+            return;
+        synchronized(parent){
+            if(parent.children!=null)
+                parent.children.remove(path.getFileName().toString());
+        }
+    }
+    void moved(Path source,Path target){        //keeps what was loaded below source
+        Node sourceParent = loadedParent(source), targetParent = loadedParent(target);
+        Node node = null;
+        if(sourceParent!=null){
+            synchronized(sourceParent){
+                if(sourceParent.children!=null)
+                    node = sourceParent.children.remove(source.getFileName().toString());
+            }
+        }
+        if(targetParent==null)
+            return;
+        synchronized(targetParent){
+            if(targetParent.children!=null)
+                targetParent.children.put(target.getFileName().toString(),node!=null ? node : new Node(Files.isDirectory(target)));
+        }
+    }
+    void invalidate(Path dir){                  //events of dir were lost, it is listed again when needed
+        Path relative = relative(dir);
+        if(relative==null)
+            return;
+        Node node = relative.toString().isEmpty() ? top : loadedParent(dir);
+        if(node!=null && node!=top)
+            node = node.children==null ? null : node.children.get(dir.getFileName().toString());
+        if(node==null)
+            return;
+        synchronized(node){
+            node.children = null;
+        }
+    }
+}
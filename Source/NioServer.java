@@ -0,0 +1,345 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Selector based server mode (started with --nio).
+ * One thread accepts and reads every connection, complete lines are handed to a small worker pool
+ * which runs the usual ServerThread.process() for that client. Replies are queued on the connection
+ * and written back by the selector thread, so idle clients cost a buffer instead of a thread.
+ */
+public class NioServer implements Runnable, Closeable {
+    final static long CLOSE_TIMEOUT = 5000;     //ms close() waits for the sessions to end
+    int port;
+    Selector selector;
+    ServerSocketChannel serverChannel;
+    ExecutorService workers;                //runs the commands, one task at a time per connection
+    Set<NioConnection> connections;
+    Queue<NioConnection> pendingWrites;     //connections with queued output, picked up by the selector thread
+
+    /* --- shared with the rest of the server --- */
+    SessionRegistry sessions;
+    ServerEvents events;
+    WatchHub watchHub;
+    Trash trash;
+    JournalStore journals;
+    FileTransfer files;
+
+    NioServer(int port,SessionRegistry sessions,ServerEvents events,WatchHub watchHub,Trash trash,JournalStore journals,FileTransfer files){
+        this.port = port;
+        this.sessions = sessions;
+        this.events = events;
+        this.watchHub = watchHub;
+        this.trash = trash;
+        this.journals = journals;
+        this.files = files;
+        connections = ConcurrentHashMap.newKeySet();
+        pendingWrites = new ConcurrentLinkedQueue<NioConnection>();
+        workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    void open() throws IOException{
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public void run(){
+        while(selector.isOpen()){
+            try{
+                selector.select();
+                NioConnection connection;
+                while((connection = pendingWrites.poll())!=null){   //register interest in writing for queued output
+                    if(connection.key.isValid())
+                        connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try{
+                        if(!key.isValid())
+                            continue;
+                        if(key.isAcceptable())
+                            accept();
+                        if(key.isValid() && key.isReadable())
+                            ((NioConnection)key.attachment()).read();
+                        if(key.isValid() && key.isWritable())
+                            ((NioConnection)key.attachment()).write();
+                    }
+                    catch(IOException e){           //problem with a single client, drop only that connection
+                        if(key.attachment()!=null)
+                            ((NioConnection)key.attachment()).disconnect();
+                        else
+                            System.out.println(e);
+                    }
+                }
+            }
+            catch(ClosedSelectorException e){   //server closed
+                break;
+            }
+            catch(Exception e){
+                System.out.println(e);
+            }
+        }
+    }
+
+    void accept() throws IOException{
+        SocketChannel channel = serverChannel.accept();
+        if(channel==null)
+            return;
+        channel.configureBlocking(false);
+        NioConnection connection = new NioConnection(this,channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.add(connection);
+    }
+
+    public void close(){                    //sessions are ended by their own worker task, after what they are running
+        List<NioConnection> open = new ArrayList<NioConnection>(connections);
+        CountDownLatch ended = new CountDownLatch(open.size());
+        for(NioConnection connection : open){
+            connection.submit(() -> {
+                try{
+                    if(connection.session.clientConnected){
+                        connection.session.clientConnected = false;
+                        connection.session.exit();
+                    }
+                }
+                finally{
+                    ended.countDown();
+                }
+            });
+        }
+        try{
+            if(!ended.await(CLOSE_TIMEOUT,TimeUnit.MILLISECONDS))
+                System.out.println(ended.getCount()+" sessions didn't end in time");
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdown();
+        try{
+            selector.close();
+            serverChannel.close();
+        }
+        catch(IOException e){
+            System.out.println(e);
+        }
+    }
+}
+
+class NioConnection implements Closeable {
+    final static int GATHER = 64;
+    NioServer server;
+    SocketChannel channel;
+    SelectionKey key;
+    ServerThread session;               //created on connect, logged in once the username line arrives
+    volatile boolean loggedIn;
+    ByteBuffer readBuffer;              //bytes recieved but not yet parsed into a line or frame
+    int linesRead;
+    boolean framing;                    //client switched to binary frames, only used by the selector thread
+    Queue<ByteBuffer> writeQueue;
+    Outbox output;                      //what the session writes, flushed into writeQueue
+    Queue<Runnable> tasks;              //commands waiting for a worker, run in order
+    AtomicBoolean scheduled;            //true while a worker is draining tasks
+    volatile boolean closing;           //close the channel once writeQueue is empty
+
+    NioConnection(NioServer server,SocketChannel channel){
+        this.server = server;
+        this.channel = channel;
+        loggedIn = false;
+        readBuffer = ByteBuffer.allocate(8192);
+        linesRead = 0;
+        framing = false;
+        writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+        tasks = new ConcurrentLinkedQueue<Runnable>();
+        scheduled = new AtomicBoolean(false);
+        output = new Outbox(this::enqueue);
+        session = new ServerThread(server.sessions,output,this,this::submit,server.events,server.watchHub,server.trash,server.journals,server.files);
+    }
+
+    void read() throws IOException{
+        int count = channel.read(readBuffer);
+        if(count==-1){                  //client closed its end of the socket
+            disconnect();
+            return;
+        }
+        readBuffer.flip();
+        while(framing ? parseFrame() : parseLine()){
+            //every complete line or frame is handed to the session
+        }
+        readBuffer.compact();
+        if(!readBuffer.hasRemaining()){ //a line or frame bigger than the buffer
+            if(readBuffer.capacity()>=Frame.MAX_LENGTH+4)
+                throw new IOException("Message too long");
+            ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity()*2);
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+    boolean parseLine(){
+        int start = readBuffer.position();
+        for(int i=start; i<readBuffer.limit(); i++){
+            if(readBuffer.get(i)=='\n'){
+                int length = i-start;
+                if(length>0 && readBuffer.get(i-1)=='\r')
+                    length--;
+                byte[] bytes = new byte[length];
+                readBuffer.get(bytes);
+                readBuffer.position(i+1);
+                String message = new String(bytes,Charset.defaultCharset());
+                if(linesRead++>0 && message.equals("binary"))  //frames follow, the session switches when it handles this line
+                    framing = true;
+                received(() -> {
+                    if(!loggedIn){
+                        loggedIn = true;
+                        session.login(message);
+                        return true;
+                    }
+                    return session.handle(message);
+                });
+                return true;
+            }
+        }
+        return false;
+    }
+    boolean parseFrame() throws IOException{
+        if(readBuffer.remaining()<4)
+            return false;
+        int length = readBuffer.getInt(readBuffer.position());
+        if(length<7 || length>Frame.MAX_LENGTH)
+            throw new IOException("Invalid frame length "+length);
+        if(readBuffer.remaining()<4+length)
+            return false;
+        readBuffer.position(readBuffer.position()+4);
+        ByteBuffer body = readBuffer.slice();
+        body.limit(length);
+        Frame request = Frame.decode(body);
+        readBuffer.position(readBuffer.position()+length);
+        received(() -> session.handle(request));
+        return true;
+    }
+
+    interface Message {                 //handling of one line or frame, false once the session is over
+        boolean handle() throws IOException;
+    }
+    void received(Message message){
+        submit(() -> {
+            try{
+                if(loggedIn && !session.clientConnected)   //session already over
+                    return;
+                if(!message.handle()){
+                    session.exit();
+                    close();
+                }
+            }
+            catch(Exception e){         //same handling as ServerThread.run()
+                session.print(e.toString()+"\n");
+                session.send(e.toString());
+                session.flush();
+                if(session.clientConnected){
+                    session.clientConnected = false;
+                    session.exit();
+                }
+                close();
+            }
+        });
+    }
+
+    void submit(Runnable task){
+        tasks.add(task);
+        schedule();
+    }
+    void drain(){
+        Runnable task;
+        while((task = tasks.poll())!=null)
+            task.run();
+        scheduled.set(false);
+        if(!tasks.isEmpty())            //task added after the last poll
+            schedule();
+    }
+    void schedule(){
+        if(!scheduled.compareAndSet(false,true))
+            return;
+        try{
+            server.workers.execute(this::drain);
+        }
+        catch(RejectedExecutionException e){
+            //server closed, the session was ended already
+        }
+    }
+
+    void enqueue(ByteBuffer buffer){
+        if(!channel.isOpen())
+            return;
+        writeQueue.add(buffer);
+        server.pendingWrites.add(this);
+        server.selector.wakeup();
+    }
+    void write() throws IOException{   //gathering writes, up to GATHER queued buffers per call
+        ByteBuffer[] batch = new ByteBuffer[GATHER];
+        while(!writeQueue.isEmpty()){
+            int count = 0;
+            for(ByteBuffer buffer : writeQueue){
+                if(count==GATHER)
+                    break;
+                batch[count++] = buffer;
+            }
+            output.written(channel.write(batch,0,count));
+            ByteBuffer buffer;
+            while((buffer = writeQueue.peek())!=null && !buffer.hasRemaining())
+                writeQueue.poll();
+            if(batch[count-1].hasRemaining())
+                return;                 //socket buffer full, wait for the next OP_WRITE
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        if(closing)
+            channel.close();
+    }
+
+    void disconnect(){
+        submit(() -> {
+            if(session.clientConnected){
+                session.clientConnected = false;
+                session.exit();
+            }
+        });
+        closing = true;
+        server.connections.remove(this);
+        try{
+            channel.close();
+        }
+        catch(IOException e){
+            System.out.println(e);
+        }
+    }
+    public void close(){                //called from the session, output already queued is still sent
+        closing = true;
+        server.connections.remove(this);
+        server.pendingWrites.add(this);
+        server.selector.wakeup();
+    }
+}
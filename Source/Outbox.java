@@ -0,0 +1,134 @@
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+ * Outbound queue of one connection. The session writes a whole response (or a burst of sync updates) into
+ * the buffer and flush() queues it as one ByteBuffer, the socket is written by someone else : the selector thread
+ * in nio mode, otherwise a thread of the shared WRITERS pool, taken only while the connection has something
+ * queued, which writes everything queued with one flush. So a slow client only makes its own queue grow and
+ * holds one writer while it is stuck, an idle connection holds none. Once more than highWater bytes are queued
+ * the session stops sending it sync updates (see ServerThread.update).
+ */
+public class Outbox extends OutputStream implements WritableByteChannel {
+    static long highWater = 1<<20;      //bytes, set by --high-water
+    final static int WRITE_BUFFER = 64*1024;
+    final static ExecutorService WRITERS = Executors.newCachedThreadPool(task -> {  //idle writers end after a minute
+        Thread thread = new Thread(task,"writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    ByteArrayOutputStream buffer;       //response being written
+    AtomicLong queued;                  //bytes queued and not yet written to the socket
+    Consumer<ByteBuffer> sink;          //hands a queued buffer to the writer
+    Queue<ByteBuffer> pending;          //thread per client mode, buffers waiting for a writer
+    AtomicBoolean scheduled;            //true while a writer is draining pending
+    BufferedOutputStream batch;         //socket, written by one writer at a time
+    volatile Boolean open;
+    volatile Boolean closed;            //socket closed by a writer, once the outbox was closed and all of it sent
+
+    Outbox(Consumer<ByteBuffer> sink){  //nio, the connection writes the buffers and calls written()
+        buffer = new ByteArrayOutputStream();
+        queued = new AtomicLong();
+        this.sink = sink;
+        open = true;
+    }
+    Outbox(OutputStream socket){        //thread per client, buffers are written by a shared writer
+        this((Consumer<ByteBuffer>)null);
+        pending = new ConcurrentLinkedQueue<ByteBuffer>();
+        scheduled = new AtomicBoolean(false);
+        closed = false;
+        batch = new BufferedOutputStream(socket,WRITE_BUFFER);
+        sink = bytes -> {
+            pending.add(bytes);
+            schedule();
+        };
+    }
+
+    public void write(int b){
+        buffer.write(b);
+    }
+    public void write(byte[] b,int off,int len){
+        buffer.write(b,off,len);
+    }
+    public void flush(){                //end of a response, queued as one buffer
+        if(buffer.size()==0)
+            return;
+        enqueue(ByteBuffer.wrap(buffer.toByteArray()));
+        buffer.reset();
+    }
+    public int write(ByteBuffer shared){   //queued as it is, without copying (encoded once for all subscribers)
+        flush();
+        int length = shared.remaining();
+        enqueue(shared.slice());
+        shared.position(shared.limit());
+        return length;
+    }
+    void enqueue(ByteBuffer bytes){
+        if(!open)
+            return;
+        queued.addAndGet(bytes.remaining());
+        sink.accept(bytes);
+    }
+    void written(long bytes){
+        queued.addAndGet(-bytes);
+        Metrics.SHARED.bytesSent.add(bytes);
+    }
+    Boolean congested(){
+        return queued.get()>highWater;
+    }
+
+    void schedule(){
+        if(scheduled.compareAndSet(false,true))
+            WRITERS.execute(this::drain);
+    }
+    void drain(){                       //writer : everything queued meanwhile goes out with one flush
+        WritableByteChannel channel = Channels.newChannel(batch);
+        try{
+            ByteBuffer bytes;
+            while((bytes = pending.poll())!=null){
+                do{
+                    int length = bytes.remaining();
+                    while(bytes.hasRemaining())
+                        channel.write(bytes);
+                    written(length);
+                }while((bytes = pending.poll())!=null);
+                batch.flush();
+            }
+            if(!open){
+                closed = true;
+                batch.close();          //closed by the session and all of it was sent, closes the socket
+            }
+        }
+        catch(IOException e){          //client gone, the reading side ends the session
+            open = false;
+            closed = true;
+            pending.clear();
+        }
+        scheduled.set(false);
+        if(!pending.isEmpty() || !open && !closed)  //queued or closed after the last poll
+            schedule();
+    }
+
+    public boolean isOpen(){
+        return open;
+    }
+    public void close(){                //what is queued is still written, then a writer closes the socket
+        flush();
+        open = false;
+        if(pending!=null)
+            schedule();                 //or the writer running now does it before it ends
+    }
+}
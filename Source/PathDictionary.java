@@ -0,0 +1,66 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Paths used by the logged commands of one user, each stored once and referred to by an int id.
+ * Interning a path also interns its parent, so the ids form a tree of path segments (a/b/c => a/b => a => "").
+ * Paths are kept normalized, a/./b/ is the same path as a/b.
+ * Every Logger has its own, freed with it at logout. Only intern takes the lock, the columns are append-only and
+ * republished after every add, so path and parent read them without locking.
+ */
+public class PathDictionary {
+    final static int ROOT = 0;          //id of "", parent of the top level paths
+
+    static class Table {                //the columns and how much of them is written
+        final String[] paths;
+        final int[] parents;
+        final int size;
+
+        Table(String[] paths,int[] parents,int size){
+            this.paths = paths;
+            this.parents = parents;
+            this.size = size;
+        }
+    }
+
+    Map<String,Integer> ids;            //only used holding the lock
+    volatile Table table;
+
+    PathDictionary(){
+        ids = new HashMap<String,Integer>();
+        table = new Table(new String[1024],new int[1024],0);
+        add("",-1);
+    }
+
+    synchronized int intern(String path){
+        path = String.join("/",DependencyIndex.segments(path));
+        Integer id = ids.get(path);
+        if(id!=null)
+            return id;
+        int slash = path.lastIndexOf('/');
+        return add(path,slash==-1 ? ROOT : intern(path.substring(0,slash)));
+    }
+    int add(String path,int parent){    //holding the lock
+        Table current = table;
+        int size = current.size;
+        String[] paths = current.paths;
+        int[] parents = current.parents;
+        if(size==paths.length){         //readers keep using the old arrays until the new table is published
+            paths = Arrays.copyOf(paths,size*2);
+            parents = Arrays.copyOf(parents,size*2);
+        }
+        paths[size] = path;
+        parents[size] = parent;
+        ids.put(path,size);
+        table = new Table(paths,parents,size+1);
+        return size;
+    }
+
+    String path(int id){
+        return table.paths[id];
+    }
+    int parent(int id){                 //-1 for ROOT
+        return table.parents[id];
+    }
+}
@@ -0,0 +1,21 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RingBufferSink implements EventSink {  //keeps only the last lines printed
+    int capacity;
+    ArrayDeque<String> lines;
+
+    RingBufferSink(int capacity){
+        this.capacity = capacity;
+        lines = new ArrayDeque<String>(capacity);
+    }
+    public synchronized void print(String s){
+        if(lines.size()==capacity)
+            lines.removeFirst();        //drop the oldest line
+        lines.addLast(s);
+    }
+    public synchronized List<String> recent(){
+        return new ArrayList<String>(lines);
+    }
+}
@@ -0,0 +1,454 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Cluster mode : a Router in front of several Server nodes, each with its own port and root, e.g on one machine
+ *   java Server --headless --port 9001 --root Node1Dir
+ *   java Server --headless --port 9003 --root Node2Dir
+ *   java Router --node 9001=Node1Dir --node 9003=Node2Dir
+ * Clients connect to the router (port 8080, or --port), which reads the username, picks the node owning it on a
+ * HashRing and from then on copies the bytes both ways, text lines and binary frames alike. Data connections for
+ * file contents go straight to the node (its port+1), the nodes have to be reachable from the clients.
+ * Nodes join and leave on the router's console (join [host:]port root, leave [host:]port). The homes of the users
+ * whose owner changed are then moved with their journal from the root of the old owner to the root of the new
+ * one : their sessions are closed, the old owner is waited for until it has ended them, and new sessions wait
+ * until the move is over. Homes are moved as directories, so the router has to see the roots of the nodes (one
+ * machine, or a shared filesystem).
+ * A user whose home couldn't be moved stays pinned to the node holding it, ahead of the ring, and the move is tried
+ * again at the next join or leave. A leaving node which still holds pinned users is off the ring but stays in the
+ * cluster for them until a leave moves them all.
+ * A join or leave holds the membership write lock for its whole rebalance, so routing of every new session pauses
+ * until it is over (up to DRAIN_ATTEMPTS*100ms for each moved user whose old node keeps a session). Connecting to
+ * a node is done outside of the lock with a timeout, so an unreachable node only delays the sessions routed to it.
+ */
+public class Router {
+    final static int DRAIN_ATTEMPTS = 50;   //100ms apart, for a node to end the sessions of a user being moved
+    final static int CONNECT_TIMEOUT = 3000;    //ms to connect to a node
+
+    int port;
+    ServerSocket serverSocket;
+    HashRing ring;
+    Map<String,ClusterNode> nodes;          //by name, host:port
+    Map<String,Set<Proxy>> sessions;        //open sessions by username
+    Map<String,String> pinned;              //username => node still holding its home after a failed move
+    ReentrantReadWriteLock membership;      //read to route a session, write to change the nodes and move homes (blocks routing)
+
+    Router(int port){
+        this.port = port;
+        ring = new HashRing();
+        nodes = new ConcurrentHashMap<String,ClusterNode>();
+        sessions = new ConcurrentHashMap<String,Set<Proxy>>();
+        pinned = new ConcurrentHashMap<String,String>();
+        membership = new ReentrantReadWriteLock();
+    }
+
+    void print(String s){
+        System.out.print(s);
+    }
+
+    void run() throws IOException{
+        serverSocket = new ServerSocket(port);
+        print(String.format("Router started on port %d, %d nodes\n",port,nodes.size()));
+        while(true){
+            Socket client = serverSocket.accept();     //blocks until the next client connects
+            Threads.start("route-"+client.getPort(),() -> route(client));
+        }
+    }
+    void route(Socket client){                          //first line is the username, then the session is copied as is
+        try{
+            InputStream in = client.getInputStream();
+            String username = Frame.readLine(in);
+            if(username==null){
+                client.close();
+                return;
+            }
+            Proxy proxy = connect(username,client);
+            OutputStream up = proxy.upstream.getOutputStream();
+            up.write((username+"\n").getBytes(Charset.defaultCharset()));
+            up.flush();
+            Threads.start("proxy-"+username,() -> proxy.pump(proxy.upstream,client));
+            proxy.pump(client,proxy.upstream);
+        }
+        catch(IOException e){
+            print(e.toString()+"\n");
+            try{
+                client.close();
+            }
+            catch(IOException closing){
+                //already closed
+            }
+        }
+    }
+
+    Proxy connect(String username,Socket client) throws IOException{    //session on the owning node, registered
+        Proxy proxy = null;
+        while(proxy==null){                         //again if the owner changed while connecting
+            ClusterNode node = owningNode(username);
+            if(node==null)
+                throw new IOException("No node in the cluster");
+            Socket upstream = new Socket();
+            try{
+                upstream.connect(node.address,CONNECT_TIMEOUT);   //outside of the lock, a slow node doesn't hold up join and leave
+            }
+            catch(IOException e){
+                upstream.close();
+                throw e;
+            }
+            membership.readLock().lock();
+            try{
+                String owner = owner(username);
+                if(owner!=null && nodes.get(owner)==node){  //registered before a move of the user can look for its sessions
+                    proxy = new Proxy(this,username,node,client,upstream);
+                    sessions.computeIfAbsent(username,name -> ConcurrentHashMap.newKeySet()).add(proxy);
+                }
+            }
+            finally{
+                membership.readLock().unlock();
+            }
+            if(proxy==null)                         //moved meanwhile, its username wasn't sent yet
+                upstream.close();
+        }
+        return proxy;
+    }
+    ClusterNode owningNode(String username){   //null if there is no node
+        membership.readLock().lock();
+        try{
+            String owner = owner(username);
+            return owner==null ? null : nodes.get(owner);
+        }
+        finally{
+            membership.readLock().unlock();
+        }
+    }
+    String owner(String username){          //holding the membership lock, null if there is no node
+        String node = pinned.get(username);
+        return node!=null ? node : ring.owner(username);
+    }
+    long pinnedTo(String node){
+        return pinned.values().stream().filter(node::equals).count();
+    }
+
+    String join(String address,String root) throws IOException{
+        ClusterNode node = new ClusterNode(address,root);
+        membership.writeLock().lock();
+        try{
+            if(nodes.containsKey(node.name))
+                return node.name+" is already in the cluster";
+            nodes.put(node.name,node);
+            ring.add(node.name);
+            int moved = rebalance(nodes.values());
+            if(pinned.isEmpty())
+                return String.format("%s joined, %d users moved to it",node.name,moved);
+            return String.format("%s joined, %d users moved to it, %d users pinned to their node until a move succeeds",
+                                 node.name,moved,pinned.size());
+        }
+        finally{
+            membership.writeLock().unlock();
+        }
+    }
+    String leave(String address) throws IOException{
+        String name = ClusterNode.name(ClusterNode.address(address));
+        membership.writeLock().lock();
+        try{
+            ClusterNode node = nodes.get(name);
+            if(node==null)
+                return name+" is not in the cluster";
+            if(ring.nodes().contains(name)){        //else left already, but still had pinned users
+                if(ring.nodes().size()==1)
+                    return "the last node can't leave";
+                ring.remove(name);
+            }
+            int moved = rebalance(new ArrayList<ClusterNode>(nodes.values()));  //everything it had goes to the others
+            long left = pinnedTo(name);
+            if(left>0)                              //still routed to it, its users would find empty homes elsewhere
+                return String.format("%s is off the ring, %d users moved from it, %d couldn't be and are still served by it : leave it again to retry",
+                                     name,moved,left);
+            nodes.remove(name);
+            return String.format("%s left, %d users moved from it",name,moved);
+        }
+        finally{
+            membership.writeLock().unlock();
+        }
+    }
+    int rebalance(Collection<ClusterNode> sources) throws IOException{    //holding the write lock, users moved
+        int moved = 0;
+        for(ClusterNode source : sources){
+            for(String username : source.users()){
+                ClusterNode owner = nodes.get(ring.owner(username));
+                if(owner==source){
+                    pinned.remove(username);
+                    continue;
+                }
+                try{
+                    move(username,source,owner);
+                    pinned.remove(username);
+                    moved++;
+                }
+                catch(IOException e){           //stays on source, and routed there, tried again at the next join or leave
+                    pinned.put(username,source.name);
+                    print(String.format("Couldn't move %s from %s to %s, pinned to %s : %s\n",username,source.name,owner.name,source.name,e));
+                }
+            }
+        }
+        return moved;
+    }
+    void move(String username,ClusterNode from,ClusterNode to) throws IOException{
+        Set<Proxy> open = sessions.get(username);
+        if(open!=null){
+            for(Proxy proxy : open.toArray(new Proxy[0]))
+                proxy.close();                      //the client reconnects and resyncs its copy from the new node
+        }
+        from.drain(username);
+        moveTree(from.root.resolve(username),to.root.resolve(username));
+        try{
+            moveTree(from.journal().resolve(username),to.journal().resolve(username));
+        }
+        catch(IOException e){                   //the home goes back, so the user is whole on one node
+            moveTree(to.root.resolve(username),from.root.resolve(username));
+            throw e;
+        }
+        print(String.format("%s moved from %s to %s\n",username,from.name,to.name));
+    }
+    void moveTree(Path source,Path target) throws IOException{
+        if(!Files.exists(source))
+            return;
+        if(Files.exists(target)){               //left from an earlier time the node owned the user
+            print("Replacing stale "+target+"\n");
+            TreeDeleter.delete(target);
+        }
+        Files.createDirectories(target.getParent());
+        try{
+            Files.move(source,target,StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(AtomicMoveNotSupportedException e){  //roots on different filesystems
+            TreeCopier.copy(source,target);
+            TreeDeleter.delete(source);
+        }
+    }
+
+    String status(){                                    //nodes command
+        StringBuilder status = new StringBuilder();
+        membership.readLock().lock();
+        try{
+            for(ClusterNode node : nodes.values()){
+                long open = sessions.values().stream().flatMap(Set::stream).filter(proxy -> proxy.node==node).count();
+                int users;
+                try{
+                    users = node.users().size();
+                }
+                catch(IOException e){
+                    users = -1;
+                }
+                status.append(String.format("%s %s : %d users, %d sessions",node.name,node.root,users,open));
+                long held = pinnedTo(node.name);
+                if(held>0)
+                    status.append(String.format(", %d pinned",held));
+                if(!ring.nodes().contains(node.name))
+                    status.append(", off the ring");
+                status.append("\n");
+            }
+        }
+        finally{
+            membership.readLock().unlock();
+        }
+        return status.toString();
+    }
+    void console() throws IOException{                  //join/leave/nodes typed on stdin
+        BufferedReader commands = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while((line = commands.readLine())!=null){
+            String[] command = Command.split(line);
+            try{
+                switch(command[0]){
+                    case "join":
+                        if(command.length!=3)
+                            print("Invalid Format (format : join [host:]port root)\n");
+                        else
+                            print(join(command[1],command[2])+"\n");
+                        break;
+                    case "leave":
+                        if(command.length!=2)
+                            print("Invalid Format (format : leave [host:]port)\n");
+                        else
+                            print(leave(command[1])+"\n");
+                        break;
+                    case "nodes":
+                        print(status());
+                        break;
+                    case "":
+                        break;
+                    default:
+                        print("ERROR : Unknown command (join, leave, nodes)\n");
+                }
+            }
+            catch(IOException | IllegalArgumentException e){
+                print(e.toString()+"\n");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> options = Arrays.asList(args);
+        Threads.virtual = options.contains("--virtual");
+        int portOption = options.indexOf("--port");
+        Router router = new Router(portOption!=-1 && portOption+1<args.length ? Integer.parseInt(args[portOption+1]) : Server.PORT);
+        for(int i=0; i+1<args.length; i++){
+            if(args[i].equals("--node")){           //--node [host:]port=root, once for each node
+                String[] node = args[i+1].split("=",2);
+                if(node.length!=2)
+                    throw new IllegalArgumentException("--node [host:]port=root");
+                router.print(router.join(node[0],node[1])+"\n");
+            }
+        }
+        Thread console = new Thread(() -> {
+            try{
+                router.console();
+            }
+            catch(IOException e){
+                router.print(e.toString()+"\n");
+            }
+        },"router-console");
+        console.setDaemon(true);
+        console.start();
+        router.run();
+    }
+}
+
+/*
+ * A node of the cluster : where its server listens, and its root (--root of that server) as the router sees it.
+ */
+class ClusterNode {
+    String name;                        //host:port, its key on the HashRing
+    InetSocketAddress address;
+    Path root;
+
+    ClusterNode(String address,String root){
+        this.address = address(address);
+        name = name(this.address);
+        this.root = Paths.get(root).toAbsolutePath().normalize();
+    }
+    static InetSocketAddress address(String address){  //[host:]port, loopback when there is no host
+        int colon = address.lastIndexOf(':');
+        if(colon==-1)
+            return new InetSocketAddress("127.0.0.1",Integer.parseInt(address));
+        return new InetSocketAddress(address.substring(0,colon),Integer.parseInt(address.substring(colon+1)));
+    }
+    static String name(InetSocketAddress address){
+        return address.getHostString()+":"+address.getPort();
+    }
+    Path journal(){                     //see JournalStore
+        return root.resolveSibling(root.getFileName()+".journal");
+    }
+
+    List<String> users() throws IOException{    //homes in the root, hidden names are being deleted (see TreeDeleter)
+        if(!Files.isDirectory(root))
+            return new ArrayList<String>();
+        try(Stream<Path> homes = Files.list(root)){
+            return homes.filter(Files::isDirectory).map(home -> home.getFileName().toString())
+                        .filter(name -> !name.startsWith(".")).collect(Collectors.toList());
+        }
+    }
+    void drain(String username) throws IOException{    //returns once this node has no session of username
+        for(int attempt=0; ; attempt++){
+            try(Socket probe = new Socket()){
+                probe.connect(address,Router.CONNECT_TIMEOUT);     //a node that doesn't answer fails the move, the user stays pinned
+                OutputStream out = probe.getOutputStream();
+                InputStream in = probe.getInputStream();
+                out.write((username+"\n").getBytes(Charset.defaultCharset()));
+                out.flush();
+                String diskLetter = Frame.readLine(in);
+                if(diskLetter!=null && !diskLetter.isEmpty()){ //logged in, so no other session is left
+                    out.write("quit\n".getBytes(Charset.defaultCharset()));
+                    out.flush();
+                    in.transferTo(OutputStream.nullOutputStream());    //until the node closes it, its journal is closed then
+                    return;
+                }
+            }
+            catch(ConnectException e){          //node is down, nothing uses the files
+                return;
+            }
+            if(attempt==Router.DRAIN_ATTEMPTS)
+                throw new IOException(username+" still has a session on "+name);
+            try{
+                Thread.sleep(100);
+            }
+            catch(InterruptedException e){
+                throw new IOException("Interrupted while waiting for "+name);
+            }
+        }
+    }
+}
+
+/*
+ * One client session going through the router, copied both ways by two threads until either end closes.
+ */
+class Proxy {
+    Router router;
+    String username;
+    ClusterNode node;
+    Socket client,upstream;
+    AtomicBoolean closed;
+
+    Proxy(Router router,String username,ClusterNode node,Socket client,Socket upstream){
+        this.router = router;
+        this.username = username;
+        this.node = node;
+        this.client = client;
+        this.upstream = upstream;
+        closed = new AtomicBoolean(false);
+    }
+
+    void pump(Socket from,Socket to){
+        try{
+            from.getInputStream().transferTo(to.getOutputStream());   //written as it is read, nothing is held back
+        }
+        catch(IOException e){
+            //the other end or close() closed the sockets
+        }
+        close();
+    }
+    void close(){
+        if(!closed.compareAndSet(false,true))
+            return;
+        try{
+            client.close();
+        }
+        catch(IOException e){
+            //already closed
+        }
+        try{
+            upstream.close();
+        }
+        catch(IOException e){
+            //already closed
+        }
+        router.sessions.computeIfPresent(username,(name,open) -> {
+            open.remove(this);
+            return open.isEmpty() ? null : open;
+        });
+    }
+}
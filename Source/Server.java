@@ -1,10 +1,14 @@
-import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.InetAddress;
+import java.io.OutputStreamWriter;
+import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.*;
@@ -12,255 +16,241 @@ import java.awt.event.*;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
-import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
-import javax.swing.JTextField;
-import javax.swing.JTextPane;
+import javax.swing.JTabbedPane;
+
+public final class Server {
 
-public class Client {
-    
     /* --- Socket components --- */
-    final static int PORT = 8080;   //Port number where our sockets will connect
-    Socket socket;                  //Client socket 
-    BufferedReader in;              //Buffered input for socket
-    PrintWriter out;                //output for socket
-    String username;
-    Boolean isConnected,isRunning;            //to keep track of socket connection status
+    final static int PORT = 8080;       //Port number where our sockets will connect
+    static String rootDir = "ServerDir";    //directory holding the home of every user (--root)
+    int port;                           //PORT unless --port, e.g for the nodes of a cluster (see Router)
+    ServerSocket serverSocket;
+    Boolean isConnected;                //to keep track of socket server socker connection status
+    SessionRegistry sessions;           //connected usernames and their disk letters A/B/C/..
 
-    /* --- Directory Related --- */
-    DirectoryManager directoryManager;  //handles all directory related operations (used in both server and client)
-    String diskLetter;                  //diskletter A/B/C/... for local directories of client
+    /* --- Console --- */
+    ServerEvents events;                //everything the server prints goes through here to the subscribed sinks
+    RingBufferSink recentEvents;        //last lines printed, kept in memory
+    Boolean headless;                   //no GUI (--headless), for machines without a display
 
     /* --- GUI Components --- */
-    //this are needed by other functions hence they are placed outside of GUI function
-    JFrame frame; //Frame to hold other components
-    JTextPane outputView;
+    JFrame frame;           //Frame to hold other components
+    SwingConsole console;   //GUI subscriber of events, shows the live output, logs and connected users
+
+    Set<ServerThread> serverThreads;    //sessions of thread per client mode, each removes itself when it ends
+    Boolean nio;                        //selector based server mode (--nio), uses NioServer instead of a thread per client
+    NioServer nioServer;
+    WatchHub watchHub;                  //watches the directories synced by all clients
+    Boolean indexed;                    //keep the names below ServerDir in memory (--index)
+    Boolean trashMode;                  //rm moves directories to the trash, purged in the background (--trash)
+    Trash trash;
+    Boolean journaled;                  //logs are kept on disk across sessions and restarts (--journal)
+    JournalStore journals;
+    FileTransfer files;                 //data connections sending the contents of synced files, on port+1
+    long statsSeconds;                  //period of the stats dump on the console (--stats), 0 for none
 
-    public Client(){
-        isConnected = false;    //set connection status to false initially
-        frame = new JFrame();
+    public Server(Boolean headless) {
+        isConnected = false;    //make connection status false initially
+        nio = false;
+        indexed = false;
+        trashMode = false;
+        journaled = false;
+        statsSeconds = 0;
+        port = PORT;
+        this.headless = headless;
         
-        JPanel inputPanel = new JPanel();
-        inputPanel.setLayout(new BorderLayout());
-        JTextField inputText = new JTextField(""); //textfields for input via GUI      
-        inputText.addKeyListener(new KeyAdapter() {
-            @Override
-            public void keyPressed(KeyEvent e) {
-                if(e.getKeyCode() == KeyEvent.VK_ENTER){
-                    String command = inputText.getText();      //saving command entered by user
-                    inputText.setText("");              //reseting input field
-                    send(command);                      //sending command over to server
-                }
-            }
-        });
-        JLabel usernameLabel = new JLabel();
-        inputPanel.add(usernameLabel,BorderLayout.WEST);
-        inputPanel.add(inputText,BorderLayout.CENTER);
+        sessions = new SessionRegistry();   //shared by the sessions, thread safe without locks
+        
+        //Set of child server threads, added by the accept loop and removed by the sessions
+        serverThreads = ConcurrentHashMap.newKeySet();
 
-        JButton connectButton;
-        connectButton = new JButton("Connect");
+        events = new ServerEvents();
+        recentEvents = new RingBufferSink(1000);
+        events.subscribe(recentEvents);
+        if(!headless)
+            createGui();
+    }
+    void createGui(){
+        frame = new JFrame();  
+        
+        JButton connectButton = new JButton("Connect");
         connectButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent arg0) {
-                try{
-                    connectToServer();
-                }catch(IOException e){
-                    print(e.toString()+"\n");
-                }
+                start();
             }
         });
-
-        JButton usernameButton = new JButton("Create Username");
-        usernameButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent arg0) {
-                username = JOptionPane.showInputDialog(frame, "Enter Username");
-                if(isUsernameValid(username)){    //checking if username is valid    
-                    usernameButton.setText("Change Username");  //updating text of username button
-                    usernameLabel.setText(username);
-                }
-                else{
-                    username = "";
-                }
-            }
-        });
-
         JButton exitButton = new JButton("Exit");
         exitButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent arg0) {
-                isRunning = false;
-                if(isConnected)
-                    send("quit");   //server closes the socket when it recives "quit" message
-                isConnected = false;                                
+                shutdown();
+                frame.dispose();    //Closing GUI
+                System.exit(0);     //Exiting program with no errors
             }
         });
-    
-        outputView = new JTextPane();                    // TextPane which will act as a console for gui to desplays results and errors
-		outputView.setEditable(false);                             // it will be read-only for user
-        JScrollPane scrollPane = new JScrollPane(outputView);      //to make console scrollable
-
-	    JPanel buttonsPanel = new JPanel();
+        
+        JPanel buttonsPanel = new JPanel();
 		buttonsPanel.setBorder(BorderFactory.createEmptyBorder(5,5,5,5));
-		buttonsPanel.setLayout(new GridLayout(2,3));
+		buttonsPanel.setLayout(new GridLayout(0,2));
 		
 		buttonsPanel.add(connectButton);
-		buttonsPanel.add(usernameButton);
-		buttonsPanel.add(exitButton);
-        
-        frame.add(inputPanel, BorderLayout.NORTH);
-        frame.add(scrollPane, BorderLayout.CENTER);
-        frame.add(buttonsPanel, BorderLayout.SOUTH);
-        
-        frame.setSize(640,480);
-        frame.setLocationRelativeTo(null);
-        frame.setResizable(false);
-		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		frame.setTitle("Client");
-		frame.setVisible(true);
+        buttonsPanel.add(exitButton);
 
-        isRunning   = true;
-    }
+        console = new SwingConsole();
+        events.subscribe(console);
 
-    void print(String s){
-        outputView.setText(outputView.getText()+s);
+        JTabbedPane tabbedPane = new JTabbedPane();
+        tabbedPane.addTab("Live",new JScrollPane(console.outputView));
+        tabbedPane.addTab("Logs",new JScrollPane(console.logsPane));
+
+        frame.add(console.userStatus, BorderLayout.NORTH);
+        frame.add(tabbedPane, BorderLayout.CENTER); //the console, in the center
+		frame.add(buttonsPanel, BorderLayout.SOUTH); //the buttons are in the panel1 that is placed to the north
+		
+		frame.setSize(640,480);
+		frame.setLocationRelativeTo(null);
+		frame.setResizable(false); //fixes the size of the window
+		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		frame.setTitle("Server");
+		frame.setVisible(true);
     }
-    void connectToServer() throws IOException{
-        if (isConnected){                                       //skip if already connected
-            print("Already connected\n");
-        }
-        else if (isUsernameValid(username)){                    //double check if username is valid
-            InetAddress address = InetAddress.getLocalHost();   //local machine address, change this to make server work on public address
-            socket = new Socket(address,PORT);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));    //using buffered reader is better performance wise
-            out = new PrintWriter(socket.getOutputStream());    
-            out.println(username);                              //sending username over to server to check if its available
-            out.flush();                                        //need to flush the outstream to send the message immediatly
-            diskLetter = in.readLine();                         //recive diskletter A/B/C/.. from server
-            if(diskLetter.equals("")){
-                print("Error : username taken. please try different username\n"); 
-                diskLetter = null;
+    void start(){                           //opens the server socket, connect button (or startup when headless)
+        try{
+            if(isConnected){    //Skip if already connected
+                print("Already connected\n");
             }
-            else{
-                isConnected = true;                             //assume client connected if non empty diskletter recived
-                print("Connected to server\n");
-                frame.setTitle("Client "+diskLetter);
-                directoryManager = new DirectoryManager("ClientsDir",diskLetter);
-                send("sync");                                       //intiating synchronization process
+            else if(nio){
+                openWatchHub();
+                nioServer = new NioServer(port,sessions,events,watchHub,trash,journals,files);
+                nioServer.open();
+                new Thread(nioServer,"nio-selector").start();   //selector loop runs on its own thread
+                print(String.format("Server started on port %d (nio)\n",port));
+                isConnected = true;
             }
+            else {
+                openWatchHub();
+                serverSocket = new ServerSocket(port);
+                print(String.format("Server started on port %d\n",port));
+                isConnected = true;
+            }
+            synchronized(this){
+                notifyAll();    //wakes up run() waiting for the server to start
+            }
+        }catch(IOException e){
+            print(e.toString()+"\n");
         }
     }
-    Boolean isUsernameValid(String username){
-        if (username == null){
-            print("Enter a username for connection\n");
-            return false;
-        }
-        else if (!username.matches("^[a-zA-Z0-9]+$")){          //regex to match alphanumeric username
-            print("Username is empty or not valid! Alphanumeric only\n");
-            return false;
-        }
-        return true;
-    }
-    void send(String message){
-        if(isConnected){        //send and print the message if connected
-            print(String.format("» %s\n",message));
-            out.println(message);
-            out.flush();
-        }
-        else{
-            print("Not connected to server\n");
-        }
-    }
-    void close(){                //socket.close() can throw IOExecption
-        frame.setTitle("Client");
-        File home = new File(directoryManager.root,diskLetter);
+    void openWatchHub() throws IOException{  //with the namespace index fed by it, the trash and the journals, if enabled
+        watchHub = new WatchHub();
+        if(indexed)
+            watchHub.index = new NamespaceIndex(Paths.get(rootDir),watchHub);
+        if(trashMode)
+            trash = new Trash(Paths.get(rootDir));
+        if(journaled)
+            journals = new JournalStore(Paths.get(rootDir));
         try{
-            if(home.exists())
-                directoryManager.deleteDirectory(home); //remove local sync directory A/B/C/...
-            socket.close();
+            files = new FileTransfer(port+1);
         }
-        catch(IOException e){
-            System.out.println(e);
+        catch(IOException e){           //sync still works, without file contents
+            print("File transfer disabled : "+e+"\n");
         }
-        print("Disconnected from server\n");
-        isConnected=false;                          //make connection status false initially
+        Metrics.SHARED.register();
+        Metrics.SHARED.dumpEvery(statsSeconds,events);
     }
-
-    String process(String response){
-        //tokenize response from server into ArrayList using " " as seprator
-        String[] command = response.split(" ");
-        String message = "";
-        //command[0] holds opertation code and subsequent cells hold operands
-        try{
-        switch(command[0]){
-            case "sync_mkdir":
-                directoryManager.createDirectory(command[1]);
-                break;
-            case "sync_rm":
-                directoryManager.deleteDirectory(command[1]);
-                break;
-            case "sync_cd":
-                directoryManager.changeDirectory(command[1]);
-                break;
-            case "quit":
-                close();
-                message = "closing connection";
-                break;
-            default:
-                message = response;
-        }
-        }
-        catch(IOException e){
-            System.out.println(e);
+    void shutdown(){                        //exit button (or JVM shutdown when headless)
+        for(ServerThread serverThread : serverThreads){
+            if(serverThread.clientConnected)
+                serverThread.exit();
         }
-        return message;
+        if(nioServer!=null)
+            nioServer.close();
+        if(watchHub!=null)
+            watchHub.close();
+        if(trash!=null)
+            trash.close();
+        if(journals!=null)
+            journals.close();
+        if(files!=null)
+            files.close();
+        Metrics.SHARED.close();
+        events.close();
     }
-
-    public void exit() {
-        if(diskLetter!=null){
-            File home = new File(directoryManager.root,diskLetter);
-            if(home.exists())
-                try{        
-                    directoryManager.deleteDirectory(home); //remove local sync directory A/B/C/...
-                }
-                catch(IOException e){
-                    System.out.println(e);
-                }
-        }
-        frame.dispose();
-        System.exit(0);
+    void print(String s){
+        events.print(s);
     }
-
-    public void run() {
-        while(isRunning){
+    synchronized void waitUntilConnected(){
+        while(!isConnected){
             try{
-                Thread.sleep(500);  //checking too fast can cause program to misbehave
+                wait();     //notified by the connect button
             }
             catch(InterruptedException e){
                 System.out.println("While wating got Interrupted by "+e);
             }
-            if(isConnected){
-                try{                                    //try-catch inside while because otherwise it will break while loop
-                    if(in.ready()){
-                        String response = in.readLine();    //skip if not connected
-                        response=process(response);                      
-                        if(!response.equals(""))            //print to console if not empty
-                            print(response+"\n");
+        }
+    }
+    public void run() { 
+        waitUntilConnected();
+        if(nio)             //in nio mode connections are accepted by the selector loop
+            return;
+        while(true) {   // Runs until Exit button is pressed
+            try{
+                Socket clientSocket = serverSocket.accept();   //blocks until the next client connects
+                //starting a new thread to handle new connection, the username is read there so a silent client doesn't hold up the others
+                ServerThread serverThread = new ServerThread(sessions,clientSocket,events,watchHub,trash,journals,files);
+                serverThreads.add(serverThread); 	//stored to close the serverThread
+                serverThread.thread = Threads.start("client-"+clientSocket.getPort(),() -> {
+                    try{
+                        serverThread.run();
                     }
-
-                }
-                catch(IOException e){
-                    print(e.toString()+"\n");
-                    isConnected = false;
-                }
+                    finally{
+                        serverThreads.remove(serverThread);
+                    }
+                });
+            }
+            catch(IOException e){
+                print(e.toString()+"\n"); //prints exception to console
             }
         }
-        exit();
+        
     }
-    public static void main(String[] args){
-        Client c = new Client();    
-        c.run();
+
+    public static void main(String[] args) throws IOException {
+        List<String> options = Arrays.asList(args);
+        Server s = new Server(options.contains("--headless"));
+        s.nio = options.contains("--nio");
+        s.indexed = options.contains("--index");
+        s.trashMode = options.contains("--trash");
+        s.journaled = options.contains("--journal");
+        Threads.virtual = options.contains("--virtual");
+        int highWaterOption = options.indexOf("--high-water");
+        if(highWaterOption!=-1 && highWaterOption+1<args.length)  //--high-water bytes queued for a client before its sync updates are dropped
+            Outbox.highWater = Long.parseLong(args[highWaterOption+1]);
+        int quietOption = options.indexOf("--quiet");
+        if(quietOption!=-1 && quietOption+1<args.length)      //--quiet ms without changes before a synced tree is sent its delta
+            WatchHub.quiet = Long.parseLong(args[quietOption+1]);
+        int statsOption = options.indexOf("--stats");
+        if(statsOption!=-1 && statsOption+1<args.length)      //--stats seconds prints the stats on the console that often
+            s.statsSeconds = Long.parseLong(args[statsOption+1]);
+        int portOption = options.indexOf("--port");
+        if(portOption!=-1 && portOption+1<args.length)        //--port n listens on n (and n+1 for file contents)
+            s.port = Integer.parseInt(args[portOption+1]);
+        int rootOption = options.indexOf("--root");
+        if(rootOption!=-1 && rootOption+1<args.length)        //--root dir keeps the homes in dir instead of ServerDir
+            rootDir = args[rootOption+1];
+        int logOption = options.indexOf("--log");
+        if(logOption!=-1 && logOption+1<args.length)          //--log file appends the console to a file
+            s.events.subscribe(new AsyncAppenderSink(new FileWriter(args[logOption+1],true)));
+        else if(s.headless)                                     //nothing else would show the console
+            s.events.subscribe(new AsyncAppenderSink(new OutputStreamWriter(System.out)));
+        if(Threads.virtual && !Threads.virtualSupported())
+            s.print("Virtual threads need Java 21 or newer, using platform threads\n");
+        if(s.headless){                                         //no connect button, start listening right away
+            Runtime.getRuntime().addShutdownHook(new Thread(s::shutdown));
+            s.start();
+        }
+        s.run();    //starting server loop
     }
 }
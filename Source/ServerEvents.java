@@ -0,0 +1,50 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/*
+ * Console of the server without any GUI dependency.
+ * ServerThread, Logger and Server publish what they print here and every subscribed EventSink
+ * gets a copy, the Swing window (SwingConsole) is just one of the subscribers.
+ */
+public class ServerEvents implements EventSink {
+    List<EventSink> sinks;
+
+    public ServerEvents(){
+        sinks = new CopyOnWriteArrayList<EventSink>();   //subscribing is rare, publishing is done by every client thread
+    }
+    public void subscribe(EventSink sink){
+        sinks.add(sink);
+    }
+    public void unsubscribe(EventSink sink){
+        sinks.remove(sink);
+    }
+
+    public void print(String s){
+        for(EventSink sink : sinks)
+            sink.print(s);
+    }
+    public void usersChanged(String usernameList){
+        for(EventSink sink : sinks)
+            sink.usersChanged(usernameList);
+    }
+    public void logOpened(String username){
+        for(EventSink sink : sinks)
+            sink.logOpened(username);
+    }
+    public void logAppended(String username,String line){
+        for(EventSink sink : sinks)
+            sink.logAppended(username,line);
+    }
+    public void logRewritten(String username,String logs){
+        for(EventSink sink : sinks)
+            sink.logRewritten(username,logs);
+    }
+    public void logClosed(String username){
+        for(EventSink sink : sinks)
+            sink.logClosed(username);
+    }
+    public void close(){
+        for(EventSink sink : sinks)
+            sink.close();
+    }
+}
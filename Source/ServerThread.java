@@ -0,0 +1,695 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class ServerThread implements Runnable {
+    final static int LS_BATCH = 512;    //entries of ls written at once
+    Thread thread;                  //thread running this session (virtual with --virtual), null in nio mode
+    Socket clientSocket; 
+    BufferedInputStream in;         //lines are read byte by byte from it so binary frames can follow them
+    Outbox output;                  //outbound queue, a response is written here and queued at its end by flush()
+    PrintWriter out;
+    Boolean binary;                 //binary framing negotiated (see Frame)
+    int requestId;                  //id of the request being handled in binary mode, 0 for updates
+    Closeable connection;           //socket (or nio connection) to close when the session ends
+    WatchHub watchHub;              //topics of the directories synced by all clients
+    Trash trash;                    //null unless the server runs in trash mode
+    JournalStore journals;          //null unless logs are journaled
+    FileTransfer files;             //data connections for file contents, null if its port couldn't be opened
+    FileTransfer.Connection data;   //this client's, null until it sends "data"
+    Executor updateRunner;          //runs the updates of synced directories for this session, never blocks the hub
+    BlockingQueue<Runnable> updates;    //updates waiting for the watch thread of this session (thread per client mode)
+    Map<String,SyncTopic> syncTopics;   //directories synced by the client, by name
+    Map<String,Integer> syncVersions;   //version of each synced directory the client was sent, a delta must lead to the next one
+    Set<SyncTopic> resyncs;             //topics whose updates were dropped for a slow client, until it syncs them again
+    Map<String,MerkleTree> merkles;     //trees a reconnecting client is comparing its copy with, by name
+    DirectoryManager directoryManager;
+    Boolean clientConnected;
+    SessionRegistry sessions;
+    String username;
+    int sessionId;
+    String diskLetter;      //sessionId as letters, A..Z then AA..
+    ServerEvents events;    //console of the server
+    Logger logger;
+    String pendingPrompt;   //"sync" or "log" while waiting for the client to answer a prompt, null otherwise
+    Boolean snapshotSync;   //send synced trees as one sync_snapshot message (set snapshot on)
+    Boolean compressSync;   //deflate the snapshots (set compress on)
+
+    ServerThread(SessionRegistry sessions, Socket clientSocket,ServerEvents events,WatchHub watchHub,Trash trash,JournalStore journals,FileTransfer files) throws IOException{
+        this(sessions,events,watchHub,trash,journals,files);
+        this.clientSocket = clientSocket;
+        updates = new LinkedBlockingQueue<Runnable>();
+        updateRunner = updates::add;                //run by the watch thread started in run()
+
+        in = new BufferedInputStream(clientSocket.getInputStream());
+        output = new Outbox(clientSocket.getOutputStream());
+        connection = output;                        //closes the socket once everything queued was sent
+        out = new PrintWriter(output);
+        clientConnected = false;    //until run() reads the username
+    }
+    ServerThread(SessionRegistry sessions, Outbox output, Closeable connection,Executor updateRunner,ServerEvents events,WatchHub watchHub,Trash trash,JournalStore journals,FileTransfer files){
+        //used by NioServer, lines are fed through login() and handle() instead of being read from a socket
+        this(sessions,events,watchHub,trash,journals,files);
+        this.connection = connection;
+        this.updateRunner = updateRunner;
+        this.output = output;
+        out = new PrintWriter(output);
+        clientConnected = false;
+    }
+    private ServerThread(SessionRegistry sessions, ServerEvents events,WatchHub watchHub,Trash trash,JournalStore journals,FileTransfer files){
+        this.events = events;
+        this.watchHub = watchHub;
+        this.trash = trash;
+        this.journals = journals;
+        this.files = files;
+        this.sessions = sessions;
+        binary = false;
+        requestId = 0;
+        snapshotSync = false;
+        compressSync = false;
+    }
+    void login(String username) throws IOException{    //first line sent by client is its username
+        this.username = username;
+        Integer id = sessions.register(username);   //reserved in one step, a concurrent login of the same name gets null
+        if(id==null){
+            send("");        //sending empty diskletter
+            flush();
+            connection.close();
+            clientConnected = false;
+        }
+        else{
+            sessionId = id;
+            diskLetter = SessionRegistry.diskLetter(id);
+            Metrics.SHARED.sessions.incrementAndGet();
+            print(username+" connected\n");
+            updateUsernames();
+            
+            send(diskLetter);
+            
+            logger = new Logger(username,events,journals==null ? null : journals.open(username));
+            directoryManager = new DirectoryManager(Server.rootDir,username,watchHub.index);
+            directoryManager.trash = trash;
+            syncTopics = new ConcurrentHashMap<String,SyncTopic>();   //to access topics by name(string) of the directories they are watching
+            syncVersions = new ConcurrentHashMap<String,Integer>();
+            resyncs = ConcurrentHashMap.newKeySet();
+            merkles = new HashMap<String,MerkleTree>();
+            clientConnected = true;
+            flush();
+        }
+    }
+    void print(String s){
+        events.print(s);
+    }
+
+    void exit(){										//acting as a destructor only difference is that the calls are manual
+        print(username+" disconnected\n");
+        for(SyncTopic topic : syncTopics.values())
+            watchHub.unsubscribe(topic.dir.toPath(),this);
+        syncTopics.clear();
+        if(trash!=null)                 //nothing can be undone anymore
+            trash.purge(username);
+        logger.exit();
+        sessions.unregister(username,sessionId);   //frees the name and the disk letter
+        Metrics.SHARED.sessions.decrementAndGet();
+        updateUsernames();
+        if(data!=null)
+            data.close();
+        sendUpdate("quit");
+        flush();
+        output.close();                 //the rest of the queue is still sent
+    }
+    synchronized void send(String message){ 			//to send message to client, watch events are sent from another thread
+        Metrics.SHARED.linesSent.increment();
+        if(binary){
+            writeFrame(new Frame(Frame.Opcode.LINE,requestId,message));
+            return;
+        }
+        out.println(message);           //sent with the rest of the response by flush()
+    }
+    synchronized void sendLogs(){                       //same as send(logger.printLogs()), streamed in text mode
+        if(binary){
+            send(logger.printLogs());
+            return;
+        }
+        try{
+            logger.printLogs(out);
+        }
+        catch(IOException e){
+            //PrintWriter doesn't throw
+        }
+        out.println();
+        Metrics.SHARED.linesSent.add(logger.logs.size()+2);
+    }
+    synchronized void sendBatch(List<String> lines){    //same as send() for each line, then flushed so a long response is sent while it is made
+        for(String line : lines)
+            send(line);
+        flush();
+    }
+    synchronized void sendUpdate(String... update){     //sync_mkdir/sync_rm/sync_cd/quit and their operands
+        if(binary){
+            Metrics.SHARED.linesSent.increment();
+            writeFrame(Frame.of(requestId,update));
+        }
+        else
+            send(Command.join(update));
+    }
+    synchronized void writeFrame(Frame frame){          //frames are only buffered, flush() sends them together
+        try{
+            output.write(frame.encode());
+        }
+        catch(IOException e){
+            print(e.toString()+"\n");
+        }
+    }
+    synchronized void writeEncoded(ByteBuffer encoded){  //encoded once for every subscriber of a topic, must not be changed
+        out.flush();                                //what was printed before goes first
+        output.write(encoded.duplicate());          //queued without copying
+    }
+    synchronized void flush(){                          //end of a response or of a burst of updates, queued as one write
+        out.flush();
+        output.flush();
+    }
+    
+    void updateUsernames(){ 							//used to print realtime connected list of usernames
+        StringBuilder usernameList = new StringBuilder("Connected Users: ");
+        for(String username : sessions.connected()){   //snapshot, logins and logouts meanwhile don't block it
+            usernameList.append(username).append(' ');
+        }
+        events.usersChanged(usernameList.toString());
+    }
+    
+    String treeEncoding(){                              //how this client wants synced trees, key of SyncTopic.tree()
+        return (binary ? "F" : "T")+(!snapshotSync ? "L" : compressSync ? "Z" : "P");
+    }
+    String process(String message){     	//this function processes the commands recieved from client
+        //tokenizing the command
+        return process(Command.split(message));
+    }
+    String process(String[] command){
+        long started = System.nanoTime();   //latency of the command, see Metrics
+        
+        String response=""; //stores the response to be sent to the client
+        try{
+        switch(command[0]){ //switch case for the operation name
+        	//each case first handles the improper format of the command and then performs the appropriate subroutine for the 
+        	//execution of the command, furthermore, it sets the appropriate response to be sent to the user via the gui of the client
+            case "mkdir":
+                if(Bulk.isBulk(command))                    //mkdir x y z
+                    response = bulk(command);
+                else if(command.length!=2) {
+                    response = "Invalid Format (format : mkdir nameOfDirectory)";
+                }
+                else {
+                    directoryManager.createDirectory(command[1]);
+                    logger.add(Command.join("mkdir",directoryManager.getCurrentDir()+command[1]));
+                    response = command[1]+" was created";
+                }
+                break;
+            case "rm":
+                if(Bulk.isBulk(command))                    //rm a b, rm a/*
+                    response = bulk(command);
+                else if(command.length!=2)
+                    response = "Invalid Format (format : rm nameOfDirectoryOrFile)";
+                else{
+                    String trashed = null;
+                    if(directoryManager.trash!=null)      //one rename, contents are deleted when the session ends
+                        trashed = directoryManager.trashDirectory(command[1]);
+                    else
+                        directoryManager.deleteDirectory(command[1]);
+                    logger.add(Command.join("rm",directoryManager.getCurrentDir()+command[1]),trashed);
+                    response = command[1]+" was removed";
+                }
+                break;
+            case "mv":
+                if(Bulk.isBulk(command))                    //mv src/* dst, mv a b dst
+                    response = bulk(command);
+                else if(command.length!=3)
+                    response = "Invalid Format (format : mv source target)";
+                else{
+                    directoryManager.moveDirectory(command[1],command[2]);
+                    logger.add(Command.join("mv",directoryManager.getCurrentDir()+command[1],
+                                directoryManager.getCurrentDir()+command[2]));
+                    response = command[1]+" was moved to "+command[2];
+                }
+                break;
+            case "rn":
+                if(command.length!=3)
+                    response = "Invalid Format (format : mv source target)";
+                else{
+                    directoryManager.renameDirectory(command[1],command[2]);
+                    logger.add(Command.join("rn",directoryManager.getCurrentDir()+command[1],
+                                directoryManager.getCurrentDir()+command[2]));
+                    response = command[1]+" was renamed to "+command[2];
+                }
+                break;
+            case "cp":                                      //cp [-r] source... target, always one plan
+                response = bulk(command);
+                break;
+            case "ls":
+                Listing listing;
+                try{
+                    listing = Listing.parse(command);
+                }
+                catch(IllegalArgumentException e){
+                    response = e.getMessage();
+                    break;
+                }
+                File lsDir; //directory of which contents will be displayed
+                if(listing.dir!=null){
+                    if(listing.dir.equals("..") && directoryManager.isHome()) //inhibits the access of parent directory 
+                        throw new IOException("Error : Insufficient permissions");
+                    lsDir = new File(directoryManager.PWD+"/"+listing.dir);
+                    if(!directoryManager.exists(lsDir))
+                        throw new IOException("Error : "+listing.dir+" doesn't exist");
+                    logger.add(Command.join("ls",directoryManager.getCurrentDir()+listing.dir));
+                }
+                else{
+                    lsDir = directoryManager.PWD;
+                    logger.add("ls");
+                }
+                send("Contents of "+lsDir.getName());
+                List<String> batch = new ArrayList<String>(LS_BATCH);
+                Boolean more = directoryManager.listContents(lsDir,listing,name -> {
+                    batch.add(name);
+                    if(batch.size()==LS_BATCH){     //one write for many entries
+                        sendBatch(batch);
+                        batch.clear();
+                    }
+                });
+                sendBatch(batch);
+                if(more)
+                    send("More entries : "+listing.next());
+                break;
+            case "quit":
+                response = "quit";
+                clientConnected = false;
+                break;
+            case "sync":
+                if(command.length>1)                        //sync dir1 dir2 .. skips the prompt
+                    syncDirectories(Arrays.copyOfRange(command,1,command.length));
+                else {
+                	//prompt user for directories to be synced, the reply is handled by answer()
+                    send("Available server directories :-");
+                    for(String dir : directoryManager.listContents(directoryManager.root)){
+                        send(dir);
+                    }
+                    if(!binary){                            //binary clients always name the directories in the request
+                        send("Enter name of directories to sync (seprated by space) :");
+                        pendingPrompt = "sync";
+                    }
+                }
+                break;
+            case "resync":                                  //resync dir hash, reconnecting client already has a copy of dir
+                if(command.length!=3)
+                    response = "Invalid Format (format : resync nameOfDirectory hash)";
+                else
+                    resync(command[1],command[2]);
+                break;
+            case "hashes":                                  //hashes dir/path, a directory the client's copy differs on
+                if(command.length!=2)
+                    response = "Invalid Format (format : hashes path)";
+                else
+                    sendHashes(command[1]);
+                break;
+            case "subtree":                                 //subtree dir/path, a directory the client's copy is missing
+                if(command.length!=2)
+                    response = "Invalid Format (format : subtree path)";
+                else
+                    sendSubtree(command[1]);
+                break;
+            case "data":                                    //asks for a data connection, for the contents of synced files
+                if(files==null)
+                    response = "ERROR : file transfer is disabled";
+                else{
+                    if(data==null || data.expired())
+                        data = files.open();
+                    sendUpdate("sync_data",Integer.toString(files.port),data.token);
+                }
+                break;
+            case "fetch":                                   //fetch path offset, sent over the data connection
+                if(command.length!=3)
+                    response = "Invalid Format (format : fetch path offset)";
+                else
+                    response = fetch(command[1],command[2]);
+                break;
+            case "dsync":
+                int i = 1;
+                while(i < command.length){
+                    SyncTopic topic = syncTopics.remove(command[i]);
+                    if(topic!=null){ //stops listening for changes
+                        watchHub.unsubscribe(topic.dir.toPath(),this);
+                        syncVersions.remove(topic.name);
+                        sendUpdate("sync_rm",command[i]);  // removes directory to be dsynced from the client directory
+                    }
+                        send(command[i]+" desynchronized");
+                    i++;
+                }
+                break;
+            case "set":                                     //session options, e.g set snapshot on
+                if(command.length!=3 || !(command[2].equals("on") || command[2].equals("off")))
+                    response = "Invalid Format (format : set option on|off)";
+                else if(command[1].equals("snapshot"))
+                    snapshotSync = command[2].equals("on");
+                else if(command[1].equals("compress"))
+                    compressSync = command[2].equals("on");
+                else
+                    response = "ERROR : Unknown option "+command[1];
+                break;
+            case "stats":                                   //counters and latencies of the whole server (see Metrics)
+                sendBatch(Arrays.asList(Metrics.SHARED.report().split("\n")));
+                break;
+            case "log":
+                if(command.length>2)
+                    response = "Invalid Format (format : log [index])";
+                else if(command.length==2)                  //log index skips the prompt
+                    undo(command[1]);
+                else {
+                    sendLogs(); //prints logs to let the user chose
+                    if(!binary){
+                        send("Enter index of command to be delete : (-1 to cancel)");
+                        pendingPrompt = "log";
+                    }
+                }
+                break;
+            default:
+                response = "ERROR : Unknown command";
+        }
+        }
+        catch(IOException e){
+            response = e.toString();
+        }
+        if(!response.matches(""))
+            print(response+"\n");
+        Metrics.SHARED.command(command[0],System.nanoTime()-started);
+        return response; //returns the repsonse needed to be sent 
+    }
+    String answer(String reply){                        //handles the reply to the prompt sent by sync or log
+        String prompt = pendingPrompt;
+        pendingPrompt = null;
+        if(reply.equals("quit")){
+            clientConnected = false;
+            return "quit";
+        }
+        if(prompt.equals("log"))
+            undo(reply);
+        else if(reply.equals(""))
+            send("Sync Session Over");
+        else
+            syncDirectories(Command.split(reply));  //split the response into individual directory names
+        return "";
+    }
+    void syncDirectories(String[] dirs){
+        for(String dir : dirs){
+            File f = new File(directoryManager.root,dir);
+            if(directoryManager.exists(f)){ 									//checks if directory exists
+                try{
+                    send("Synchronizing "+dir+" ...");
+                    syncTopics.put(dir, watchHub.subscribe(f.toPath(), this));  //sends the tree, then every change of it
+                    send(dir+" synchronized");
+                }
+                catch(Exception e){
+                    print(e.toString()+"\n");
+                }
+            }
+            else{
+                send(dir+" dosn't exist");
+            }
+        }
+    }
+    void resync(String dir,String hash) throws IOException{    //subscribes if the copy is the same tree, else sends the hashes of the first level
+        File f = new File(directoryManager.root,dir);
+        if(!directoryManager.exists(f) || DependencyIndex.segments(dir).length!=1){
+            sendUpdate("sync_rm",dir);                  //the client's copy is stale
+            send(dir+" dosn't exist");
+            return;
+        }
+        SyncTopic synced = syncTopics.get(dir);
+        if(synced!=null && !resyncs.contains(synced))   //already synchronized, else its updates were dropped (sync_resync)
+            return;
+        MerkleTree tree = MerkleTree.scan(f);
+        if(!tree.hex().equals(hash)){                   //the client walks down the differing children and calls resync again
+            merkles.put(dir,tree);
+            sendHashes(dir);
+            return;
+        }
+        merkles.remove(dir);
+        //changed since the scan : the topic sends the whole tree instead of only its version
+        syncTopics.put(dir,watchHub.subscribe(f.toPath(),this,hash));
+        send(dir+" synchronized");
+    }
+    String fetch(String path,String offset){
+        String[] segments = DependencyIndex.segments(path);
+        if(data==null)
+            return "ERROR : no data connection (send data first)";
+        if(segments.length<2 || Arrays.asList(segments).contains("..") || !syncTopics.containsKey(segments[0]))
+            return "ERROR : "+path+" is not in a synced directory";
+        try{
+            if(!data.fetch(new File(directoryManager.root,String.join("/",segments)),path,Math.max(0,Long.parseLong(offset))))
+                return "ERROR : the data connection wasn't opened in time (send data again)";
+        }
+        catch(NumberFormatException e){
+            return "Invalid Format (format : fetch path offset)";
+        }
+        return "";
+    }
+    void sendHashes(String path){                       //from the tree scanned by resync, so one walk compares one version
+        String[] segments = DependencyIndex.segments(path);
+        MerkleTree tree = segments.length==0 ? null : merkles.get(segments[0]);
+        MerkleTree node = tree==null ? null : tree.find(String.join("/",Arrays.copyOfRange(segments,1,segments.length)));
+        if(node==null){
+            sendUpdate("sync_subtree",path);            //nothing there, the client drops it
+            return;
+        }
+        List<String> update = new ArrayList<String>();
+        update.add("sync_hashes");
+        update.add(path);
+        update.addAll(node.childHashes());
+        sendUpdate(update.toArray(new String[0]));
+    }
+    void sendSubtree(String path) throws IOException{
+        String[] segments = DependencyIndex.segments(path);
+        File f = new File(directoryManager.root,String.join("/",segments));
+        if(segments.length==0 || Arrays.asList(segments).contains("..") || !directoryManager.exists(f))
+            sendUpdate("sync_subtree",path);
+        else
+            sendUpdate("sync_subtree",path,TreeSnapshot.encodeText(f,compressSync));
+    }
+    String bulk(String[] command) throws IOException{  //runs and logs a bulk command as one (see Bulk)
+        Bulk bulk;
+        try{
+            bulk = new Bulk(command,directoryManager);
+        }
+        catch(IllegalArgumentException e){
+            return e.getMessage();
+        }
+        UndoPlan plan = bulk.plan();
+        try{
+            plan.apply(progress -> {                    //all of it or nothing, reports progress on the way
+                send(progress);
+                flush();
+            });
+        }
+        catch(IOException e){
+            return e.getMessage()+", nothing was changed";
+        }
+        String currentDir = directoryManager.getCurrentDir();
+        logger.addBatch(Command.join(command)+(currentDir.isEmpty() ? "" : " in "+currentDir),plan);
+        return bulk.response(plan);
+    }
+    void undo(String reply){
+        int index;
+        try{
+            index = Integer.parseInt(reply);
+        }
+        catch(NumberFormatException e){
+            send("Invalid index, undo session canceled");
+            return;
+        }
+        if(index == -1){		 //allows exit from undo session
+            send("Undo session canceled");
+            return;
+        }
+        if(index < 0 || index >= logger.logs.size()){
+            send("Invalid index, undo session canceled");
+            return;
+        }
+        send("Undo operation started...");
+        UndoPlan plan = logger.undoPlan(index,directoryManager);
+        try{
+            plan.apply(progress -> {    //all of it or nothing, reports progress on the way
+                send(progress);
+                flush();
+            });
+            logger.delete(plan.sequences);   //deletes appropriate logs
+            print(String.format("%s undid %d logs (%d operations, %d merged)\n",username,plan.sequences.length,plan.steps.size(),plan.merged));
+            send("Undo operation complete");
+        }
+        catch(IOException e){
+            print(e.toString()+"\n");
+            send(e.getMessage()+", undo operation canceled");
+        }
+        sendLogs(); //prints new logs
+    }
+    boolean handle(String message){                     //handles one line recieved from client, returns false once the session is over
+        print(String.format("%s » %s\n",username,message));
+        if(message.equals("binary") && pendingPrompt==null){   //client switches to binary frames (see Frame)
+            send("binary ok");
+            flush();
+            binary = true;
+            return clientConnected;
+        }
+        String response;
+        if(pendingPrompt!=null)
+            response = answer(message);
+        else
+            response = process(message);
+        if(!response.matches("")){
+            send(response);
+        }
+        flush();
+        logger.updateLogPane();
+        return clientConnected;
+    }
+    boolean handle(Frame request){                      //binary mode, every frame sent while handling it carries its id
+        String[] command = request.command();
+        print(String.format("%s » %s\n",username,Command.join(command)));
+        synchronized(this){
+            requestId = request.requestId;
+        }
+        String response = process(command);
+        synchronized(this){
+            writeFrame(new Frame(Frame.Opcode.DONE,requestId,response));
+            requestId = 0;
+            flush();                                    //the whole response goes out in one write
+        }
+        logger.updateLogPane();
+        return clientConnected;
+    }
+    void deliver(SyncTopic topic,int version,ByteBuffer encoded){  //called by the topic, whole tree of a new subscriber
+        resyncs.remove(topic);
+        Metrics.SHARED.updatesForwarded.increment();
+        queue(topic,version,encoded,false);
+    }
+    void update(SyncTopic topic,int version,ByteBuffer delta){   //called by the topic for a change, dropped once too much is queued
+        if(resyncs.contains(topic))
+            return;                                     //client will ask for the whole tree again
+        if(!output.congested()){
+            Metrics.SHARED.updatesForwarded.increment();
+            queue(topic,version,delta,true);
+            return;
+        }
+        Metrics.SHARED.updatesDropped.increment();
+        print(username+" is too slow, "+topic.name+" needs a resync\n");
+        resync(topic);
+    }
+    void resync(SyncTopic topic){                       //client is told to compare its copy again, updates of topic are dropped until it does
+        resyncs.add(topic);                             //one marker replaces this update and the next ones
+        updateRunner.execute(() -> {
+            if(!topic.subscribers.contains(this))
+                return;
+            synchronized(this){
+                if(binary)
+                    writeFrame(Frame.of(0,"sync_resync",topic.name));
+                else
+                    send(Command.join("sync_resync",topic.name));
+                flush();
+            }
+        });
+    }
+    void queue(SyncTopic topic,int version,ByteBuffer encoded,Boolean delta){  //tree or delta leading to version
+        updateRunner.execute(() -> {
+            if(!topic.subscribers.contains(this))
+                return;                                 //directory was dsynced meanwhile
+            Integer sent = syncVersions.get(topic.name);
+            if(delta && (sent==null || version!=sent+1)){    //client doesn't have the version this delta applies to
+                if(sent!=null && version<=sent)
+                    return;                             //already in what it was sent
+                if(!resyncs.contains(topic)){
+                    print(username+" missed a delta of "+topic.name+", it needs a resync\n");
+                    resync(topic);
+                }
+                return;
+            }
+            writeEncoded(encoded);
+            syncVersions.put(topic.name,version);
+        });
+    }
+    void runUpdates(){                                  //runs on its own thread, sends updates as soon as the hub reports them
+        try{
+            while(clientConnected){
+                updates.take().run();
+            }
+        }
+        catch(InterruptedException e){
+            //session is over
+        }
+    }
+    public void run() {
+        try{
+            String name = Frame.readLine(in);          //first line is the username, read here instead of on the accept thread
+            if(name==null){                             //gone before logging in
+                connection.close();
+                return;
+            }
+            login(name);
+        }
+        catch(IOException e){
+            print(e.toString()+"\n");
+            try{
+                connection.close();
+            }
+            catch(IOException closeFailed){
+                //nothing else to do with it
+            }
+            return;
+        }
+        if(!clientConnected)                            //username taken, login() closed the connection
+            return;
+        Thread.currentThread().setName("client-"+username);
+        Thread watchThread = Threads.start("watch-"+username,this::runUpdates);
+        DataInputStream frames = new DataInputStream(in);
+        while(clientConnected){
+            try{
+                if(binary){
+                    Frame request = Frame.read(frames);    //blocks until the client sends something
+                    if(request==null){                  //client closed the socket
+                        clientConnected = false;
+                        break;
+                    }
+                    handle(request);
+                    continue;
+                }
+                String message = Frame.readLine(in);    //blocks until the client sends something
+                if(message==null){                      //client closed the socket
+                    clientConnected = false;
+                    break;
+                }
+                handle(message);
+            }
+            catch(Exception e){ 				//print exceptions and quit connection - expected exceptions are socket related
+                print(e.toString()+"\n");
+                send(e.toString());
+                sendUpdate("quit");
+                flush();
+                clientConnected = false;
+            }
+        }
+        watchThread.interrupt();
+        exit(); //manual call for the pseudo-destructor
+    }
+}
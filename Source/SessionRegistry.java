@@ -0,0 +1,68 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Sessions of the connected users, shared by every ServerThread (and NioServer).
+ * A username is reserved with one putIfAbsent, so of two logins with the same name only one gets it.
+ * Each session gets an id, a released id is pushed on a free list and handed out again before any new one, so
+ * allocate and release are O(1) and ids stay as small as the number of sessions. The disk letter shown to the
+ * client is the id in bijective base 26 : A..Z, then AA..ZZ, AAA.. (see diskLetter).
+ * The connected usernames are also published as an immutable array, replaced with compare and set on every
+ * login and logout, so updateUsernames reads a consistent list without locking.
+ */
+public class SessionRegistry {
+    ConcurrentHashMap<String,Integer> sessions;     //username => session id
+    ConcurrentLinkedDeque<Integer> released;        //ids free again, reused latest first
+    AtomicInteger next;                             //lowest id never given out
+    AtomicReference<String[]> connected;            //usernames in login order
+
+    SessionRegistry(){
+        sessions = new ConcurrentHashMap<String,Integer>();
+        released = new ConcurrentLinkedDeque<Integer>();
+        next = new AtomicInteger();
+        connected = new AtomicReference<String[]>(new String[0]);
+    }
+
+    Integer register(String username){             //session id, null if username is already connected
+        Integer id = released.pollFirst();
+        if(id==null)
+            id = next.getAndIncrement();
+        if(sessions.putIfAbsent(username,id)!=null){
+            released.addFirst(id);                  //not used, taken by the other session
+            return null;
+        }
+        connected.updateAndGet(users -> {
+            String[] more = Arrays.copyOf(users,users.length+1);
+            more[users.length] = username;
+            return more;
+        });
+        return id;
+    }
+    void unregister(String username,int id){       //end of the session which registered username with id
+        if(!sessions.remove(username,id))
+            return;
+        connected.updateAndGet(users -> {          //first occurrence, a new session of the same user may be listed after it
+            int i = Arrays.asList(users).indexOf(username);
+            if(i==-1)
+                return users;
+            String[] fewer = Arrays.copyOf(users,users.length-1);
+            System.arraycopy(users,i+1,fewer,i,users.length-i-1);
+            return fewer;
+        });
+        released.addFirst(id);
+    }
+    List<String> connected(){                      //snapshot, doesn't change afterwards
+        return Arrays.asList(connected.get());
+    }
+
+    static String diskLetter(int id){              //0 => A, 25 => Z, 26 => AA, 701 => ZZ, 702 => AAA
+        StringBuilder letters = new StringBuilder();
+        for(int n=id+1; n>0; n=(n-1)/26)
+            letters.append((char)('A'+(n-1)%26));
+        return letters.reverse().toString();
+    }
+}
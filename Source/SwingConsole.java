@@ -0,0 +1,99 @@
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.swing.JTabbedPane;
+import javax.swing.JTextPane;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/*
+ * GUI subscriber of ServerEvents.
+ * Text is appended to the documents instead of replacing them and all Swing calls are made on the EDT.
+ * Lines printed while an update is pending are batched into that update, so a burst of output repaints once.
+ */
+public class SwingConsole implements EventSink {
+    final static int MAX_LENGTH = 200000;   //characters kept in the live view and in each log pane, older text is dropped
+
+    JTextPane outputView;           //to display user commands and corresponding results
+    JTabbedPane logsPane;           //one tab per connected user
+    JTextPane userStatus;
+    Map<String,JTextPane> logPanes;
+    StringBuilder pending;          //printed but not yet shown
+    Boolean scheduled;              //an update of outputView is already queued on the EDT
+
+    SwingConsole(){
+        outputView = new JTextPane();  // TextPane which will act as a console for gui to desplays users commands and errors
+        outputView.setEditable(false); //we do not want to type on the console just display output
+        logsPane = new JTabbedPane();
+        userStatus = new JTextPane();
+        logPanes = new HashMap<String,JTextPane>();
+        pending = new StringBuilder();
+        scheduled = false;
+    }
+
+    public void print(String s){
+        synchronized(this){
+            pending.append(s);
+            if(scheduled)
+                return;
+            scheduled = true;
+        }
+        SwingUtilities.invokeLater(this::showPending);
+    }
+    void showPending(){
+        String text;
+        synchronized(this){
+            text = pending.toString();
+            pending.setLength(0);
+            scheduled = false;
+        }
+        append(outputView,text);
+    }
+    void append(JTextPane pane,String text){    //then trimmed to MAX_LENGTH
+        Document document = pane.getDocument();
+        try{
+            document.insertString(document.getLength(),text,null);
+            int extra = document.getLength()-MAX_LENGTH;
+            if(extra>0)
+                document.remove(0,extra);
+        }
+        catch(BadLocationException e){
+            System.out.println(e);
+        }
+    }
+
+    public void usersChanged(String usernameList){
+        SwingUtilities.invokeLater(() -> userStatus.setText(usernameList));
+    }
+    public void logOpened(String username){
+        SwingUtilities.invokeLater(() -> {
+            JTextPane logPane = new JTextPane();
+            logPane.setEditable(false);
+            logPane.setText("Logs:-\n");
+            logPanes.put(username,logPane);
+            logsPane.addTab(username,logPane);
+        });
+    }
+    public void logAppended(String username,String line){
+        SwingUtilities.invokeLater(() -> {
+            JTextPane logPane = logPanes.get(username);
+            if(logPane!=null)
+                append(logPane,line);
+        });
+    }
+    public void logRewritten(String username,String logs){
+        SwingUtilities.invokeLater(() -> {
+            JTextPane logPane = logPanes.get(username);
+            if(logPane!=null)           //only the end of a long log, as append() keeps it
+                logPane.setText(logs.length()>MAX_LENGTH ? logs.substring(logs.length()-MAX_LENGTH) : logs);
+        });
+    }
+    public void logClosed(String username){
+        SwingUtilities.invokeLater(() -> {
+            JTextPane logPane = logPanes.remove(username);
+            if(logPane!=null)
+                logsPane.remove(logPane);
+        });
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/*
+ * What the clients syncing a directory last recieved of it, so a change can be sent as a delta
+ * (sync_mv / sync_rm / sync_mkdir of the changed directories) instead of resending the whole tree.
+ * Directories are identified by their file key (device and inode on linux) to recognise renames.
+ * Paths are kept relative to dir with / between the names whatever the platform (see key), as they are sent.
+ * Files are announced with their size and modification time (sync_file / sync_rmfile), the client fetches the
+ * contents of the ones it doesn't have over its data connection (see FileTransfer).
+ */
+public class SyncState {
+    String name;                        //name of the synced directory, paths sent to the client start with it
+    File dir;
+    int version;                        //number of deltas sent to the clients
+    TreeMap<String,Object> entries;     //relative path => file key of every directory below dir
+    TreeMap<String,String> files;       //relative path => "size:modified" of every file below dir
+
+    SyncState(File dir) throws IOException{
+        this.dir = dir;
+        name = dir.getName();
+        version = 0;
+        files = new TreeMap<String,String>();
+        entries = scan(dir.toPath(),Integer.MAX_VALUE,files);
+    }
+
+    TreeMap<String,Object> scan(Path from,int depth) throws IOException{  //directories below from, up to depth levels
+        return scan(from,depth,null);
+    }
+    TreeMap<String,Object> scan(Path from,int depth,Map<String,String> foundFiles) throws IOException{  //and the files, if foundFiles isn't null
+        TreeMap<String,Object> found = new TreeMap<String,Object>();   //parents sort before their children
+        Path root = dir.toPath();
+        Files.walkFileTree(from,EnumSet.noneOf(FileVisitOption.class),depth,new SimpleFileVisitor<Path>(){
+            @Override
+            public FileVisitResult preVisitDirectory(Path path,BasicFileAttributes attributes){
+                if(!path.equals(from))
+                    found.put(key(root,path),attributes.fileKey()==null ? path : attributes.fileKey());
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path path,BasicFileAttributes attributes){
+                if(attributes.isDirectory())        //directories at the depth limit are visited as files
+                    found.put(key(root,path),attributes.fileKey()==null ? path : attributes.fileKey());
+                else if(attributes.isRegularFile() && foundFiles!=null)
+                    foundFiles.put(key(root,path),attributes.size()+":"+attributes.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFileFailed(Path path,IOException e){
+                return FileVisitResult.CONTINUE;    //deleted while walking
+            }
+        });
+        return found;
+    }
+    static String key(Path root,Path path){     //path relative to root, / between the names
+        return root.relativize(path).toString().replace(File.separatorChar,'/');
+    }
+
+    List<String[]> delta() throws IOException{  //updates turning the clients' copy into the current tree
+        List<String[]> updates = new ArrayList<String[]>();
+        TreeMap<String,Object> current;
+        TreeMap<String,String> currentFiles = new TreeMap<String,String>();
+        try{
+            current = scan(dir.toPath(),Integer.MAX_VALUE,currentFiles);
+        }
+        catch(NoSuchFileException e){           //synced directory itself was removed
+            updates.add(new String[]{"sync_rm",name});
+            entries.clear();
+            files.clear();
+            return updates;
+        }
+        Map<Object,String> currentPaths = new HashMap<Object,String>();
+        for(Map.Entry<String,Object> entry : current.entrySet())
+            currentPaths.put(entry.getValue(),entry.getKey());
+
+        //renames, parents first so a renamed parent also moves its children
+        for(String path : new ArrayList<String>(entries.keySet())){
+            Object key = entries.get(path);
+            String target = currentPaths.get(key);
+            if(key==null || target==null || target.equals(path) || key.equals(current.get(path)))
+                continue;                       //not renamed, or already moved with its parent
+            if(key.equals(entries.get(target)))
+                continue;
+            updates.add(new String[]{"sync_mv",name+"/"+path,name+"/"+target});
+            move(path,target);
+        }
+        //removed directories, only the top most one of a removed subtree is sent
+        Set<String> removed = new HashSet<String>();
+        for(String path : new ArrayList<String>(entries.keySet())){
+            if(below(removed,path)){            //siblings like "a b" may sort between "a" and "a/x"
+                entries.remove(path);
+                continue;
+            }
+            if(!entries.get(path).equals(current.get(path))){
+                updates.add(new String[]{"sync_rm",name+"/"+path});
+                entries.remove(path);
+                removed.add(path);
+            }
+        }
+        //created directories, parents before children
+        for(Map.Entry<String,Object> entry : current.entrySet()){
+            if(!entries.containsKey(entry.getKey()))
+                updates.add(new String[]{"sync_mkdir",name+"/"+entry.getKey()});
+        }
+        entries = current;
+        files(updates,currentFiles,new ArrayList<String>(files.keySet()));
+        return finish(updates);
+    }
+
+    List<String[]> delta(String scope) throws IOException{ //only the children of the directory scope changed, null if unknown
+        return delta(scope==null ? null : Collections.singleton(scope));
+    }
+    List<String[]> delta(Collection<String> scopes) throws IOException{  //children of several directories changed, null if unknown
+        if(scopes==null)
+            return delta();
+        //what the changed directories hold now, one level deep
+        List<String> prefixes = new ArrayList<String>();
+        TreeMap<String,Object> current = new TreeMap<String,Object>();
+        TreeMap<String,String> currentFiles = new TreeMap<String,String>();    //of the same directories
+        for(String scope : scopes){
+            Path from = dir.toPath().resolve(scope);
+            if(!Files.isDirectory(from)){       //removed as well, the change of its parent sends that
+                if(scope.isEmpty())
+                    return delta();
+                continue;
+            }
+            prefixes.add(scope.isEmpty() ? "" : scope+"/");
+            current.putAll(scan(from,1,currentFiles));
+        }
+        List<String[]> updates = new ArrayList<String[]>();
+        Map<Object,String> currentPaths = new HashMap<Object,String>();
+        for(Map.Entry<String,Object> entry : current.entrySet())
+            currentPaths.put(entry.getValue(),entry.getKey());
+
+        //renamed children, also from one of the directories to another
+        List<String> moved = new ArrayList<String>();
+        for(String prefix : prefixes){
+            for(String path : children(prefix)){
+                Object key = entries.get(path);
+                String target = currentPaths.get(key);
+                if(key==null || target==null || target.equals(path) || key.equals(current.get(path)) || key.equals(entries.get(target)))
+                    continue;
+                updates.add(new String[]{"sync_mv",name+"/"+path,name+"/"+target});
+                move(path,target);
+                moved.add(target);
+            }
+        }
+        //what is below a moved directory is compared too : it may be a new one which got the key of a removed one,
+        //and changes inside it may have been reported under its old path
+        for(String target : moved){
+            prefixes.add(target+"/");
+            for(String path : entries.subMap(target+"/",target+"/\uffff").keySet())
+                prefixes.add(path+"/");
+            current.putAll(scan(dir.toPath().resolve(target),Integer.MAX_VALUE,currentFiles));
+        }
+        //removed children, with everything below them
+        for(String prefix : prefixes){
+            for(String path : children(prefix)){
+                if(!entries.get(path).equals(current.get(path))){
+                    updates.add(new String[]{"sync_rm",name+"/"+path});
+                    entries.subMap(path+"/",path+"/\uffff").clear();
+                    entries.remove(path);
+                    files.subMap(path+"/",path+"/\uffff").clear();    //went with it
+                }
+            }
+        }
+        //created children, with everything already created in them
+        for(Map.Entry<String,Object> child : current.entrySet()){
+            if(entries.containsKey(child.getKey()))
+                continue;
+            TreeMap<String,Object> created = new TreeMap<String,Object>();
+            created.put(child.getKey(),child.getValue());
+            created.putAll(scan(dir.toPath().resolve(child.getKey()),Integer.MAX_VALUE,currentFiles));
+            for(String path : created.keySet())
+                updates.add(new String[]{"sync_mkdir",name+"/"+path});
+            entries.putAll(created);
+        }
+        //files directly inside the compared directories, a created directory had none before
+        List<String> compared = new ArrayList<String>();
+        for(String prefix : prefixes)
+            compared.addAll(children(files,prefix));
+        files(updates,currentFiles,compared);
+        return finish(updates);
+    }
+    void files(List<String[]> updates,Map<String,String> current,Collection<String> compared){ //compared : known files the scan covered
+        for(String path : compared){
+            if(current.containsKey(path))
+                continue;
+            int slash = path.lastIndexOf('/');
+            if(slash==-1 || entries.containsKey(path.substring(0,slash)))  //else it went with its directory
+                updates.add(new String[]{"sync_rmfile",name+"/"+path});
+            files.remove(path);
+        }
+        for(Map.Entry<String,String> file : current.entrySet()){
+            if(file.getValue().equals(files.get(file.getKey())))
+                continue;
+            updates.add(fileUpdate(file.getKey(),file.getValue()));
+            files.put(file.getKey(),file.getValue());
+        }
+    }
+    String[] fileUpdate(String path,String file){      //sync_file path size modified
+        int colon = file.indexOf(':');
+        return new String[]{"sync_file",name+"/"+path,file.substring(0,colon),file.substring(colon+1)};
+    }
+    void fileUpdates(List<String[]> updates){          //every file, sent after the tree to a new subscriber
+        for(Map.Entry<String,String> file : files.entrySet())
+            updates.add(fileUpdate(file.getKey(),file.getValue()));
+    }
+
+    List<String> children(String prefix){      //paths of the directories directly inside prefix
+        return children(entries,prefix);
+    }
+    static List<String> children(TreeMap<String,?> paths,String prefix){
+        List<String> children = new ArrayList<String>();
+        for(String path : paths.subMap(prefix,prefix+"\uffff").keySet()){
+            if(path.indexOf('/',prefix.length())==-1)
+                children.add(path);
+        }
+        return children;
+    }
+
+    static Boolean below(Set<String> dirs,String path){    //path is inside one of dirs
+        for(int slash = path.lastIndexOf('/'); slash!=-1; slash = path.lastIndexOf('/',slash-1)){
+            if(dirs.contains(path.substring(0,slash)))
+                return true;
+        }
+        return false;
+    }
+
+    List<String[]> finish(List<String[]> updates){
+        if(!updates.isEmpty()){
+            version++;
+            updates.add(new String[]{"sync_version",name,Integer.toString(version)});
+        }
+        return updates;
+    }
+
+    void move(String path,String target){      //renames path and everything below it in entries
+        SortedMap<String,Object> children = entries.subMap(path+"/",path+"/\uffff");
+        Map<String,Object> moved = new HashMap<String,Object>();
+        for(Map.Entry<String,Object> child : children.entrySet())
+            moved.put(target+child.getKey().substring(path.length()),child.getValue());
+        children.clear();
+        moved.put(target,entries.remove(path));
+        entries.putAll(moved);
+        SortedMap<String,String> movedFiles = files.subMap(path+"/",path+"/\uffff");
+        Map<String,String> renamed = new HashMap<String,String>();
+        for(Map.Entry<String,String> file : movedFiles.entrySet())
+            renamed.put(target+file.getKey().substring(path.length()),file.getValue());
+        movedFiles.clear();
+        files.putAll(renamed);
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * One synced directory and every session syncing it.
+ * The tree state is kept once for all subscribers, a change is turned into a delta once and encoded once
+ * per protocol (text lines or binary frames), the same read-only buffer then goes to every subscriber's output.
+ * The encoded tree sent to new subscribers is cached until the next change.
+ * Changes are collected until the tree has been quiet for a while (WatchHub.quiet) and then sent as one delta,
+ * so a burst of events becomes a few lines with only its net effect.
+ */
+public class SyncTopic {
+    final static int MAX_DELAY = 10;    //under constant churn a delta is still sent every 10 quiet windows
+    String name;
+    File dir;
+    SyncState state;                    //what every subscriber has of the tree, state.version is the current version
+    Set<ServerThread> subscribers;
+    Map<String,ByteBuffer> trees;       //encoded tree of the current version, by encoding (see ServerThread.treeEncoding)
+    MerkleTree hashes;                  //of the current version, null until a reconnecting client asks for it
+    /* --- changes not sent yet --- */
+    Boolean dirty;
+    Set<String> scopes;                 //directories whose children changed
+    Boolean everything;                 //events were lost, the whole tree has to be compared
+    long firstChange,lastChange;
+
+    SyncTopic(File dir) throws IOException{
+        this.dir = dir;
+        name = dir.getName();
+        state = new SyncState(dir);
+        subscribers = ConcurrentHashMap.newKeySet();
+        trees = new HashMap<String,ByteBuffer>();
+        dirty = false;
+        scopes = new HashSet<String>();
+        everything = false;
+    }
+
+    synchronized void subscribe(ServerThread session) throws IOException{
+        publish();                              //the tree is read from the disk, the others must be sent what is in it already
+        subscribers.add(session);
+        Metrics.SHARED.treeSizes.record(state.entries.size()+state.files.size());
+        session.deliver(this,state.version,tree(session.treeEncoding()));
+    }
+    synchronized void subscribe(ServerThread session,String hash) throws IOException{  //client already has a copy with that root hash
+        publish();
+        subscribers.add(session);
+        if(hashes==null)
+            hashes = MerkleTree.of(name,state.entries.navigableKeySet());
+        List<String[]> updates = new ArrayList<String[]>();
+        if(hashes.hex().equals(hash)){          //same tree, only its files (the client fetches what it lacks) and the version
+            state.fileUpdates(updates);
+            updates.add(new String[]{"sync_version",name,Integer.toString(state.version)});
+            session.deliver(this,state.version,session.binary ? encodeFrames(updates) : encodeLines(updates));
+            return;
+        }
+        Metrics.SHARED.treeSizes.record(state.entries.size()+state.files.size());
+        updates.add(new String[]{"sync_rm",name});  //changed since it was compared, replaced by the whole tree
+        session.deliver(this,state.version,session.binary ? encodeFrames(updates) : encodeLines(updates));
+        session.deliver(this,state.version,tree(session.treeEncoding()));
+    }
+    synchronized Boolean unsubscribe(ServerThread session){    //true once the last subscriber is gone
+        subscribers.remove(session);
+        return subscribers.isEmpty();
+    }
+
+    synchronized void touched(String scope,long now){  //scope changed, sent by publish() once the tree is quiet
+        if(!dirty)
+            firstChange = now;
+        dirty = true;
+        lastChange = now;
+        if(scope==null)                         //overflow, the whole tree is compared
+            everything = true;
+        else
+            scopes.add(scope);
+    }
+    synchronized long due(long quiet){                       //when publish() should run, quiet after the last change but not after MAX_DELAY quiet windows
+        return Math.min(lastChange+quiet,firstChange+quiet*MAX_DELAY);
+    }
+    synchronized void publish(){                //one delta for everything touched since the last one
+        if(!dirty)
+            return;
+        Set<String> changed = everything ? null : scopes;
+        scopes = new HashSet<String>();
+        everything = false;
+        dirty = false;
+        changed(changed);
+    }
+
+    synchronized void changed(Collection<String> scopes){  //scopes as in SyncState.delta(), null if unknown
+        List<String[]> updates;
+        try{
+            updates = state.delta(scopes);
+        }
+        catch(IOException e){                   //changed again while reading it, next event catches up
+            System.out.println(e);
+            return;
+        }
+        if(updates.isEmpty())
+            return;
+        trees.clear();
+        hashes = null;
+        ByteBuffer lines = null, frames = null;
+        for(ServerThread session : subscribers){
+            if(session.binary){
+                if(frames==null)
+                    frames = encodeFrames(updates);
+                session.update(this,state.version,frames);
+            }
+            else{
+                if(lines==null)
+                    lines = encodeLines(updates);
+                session.update(this,state.version,lines);
+            }
+        }
+    }
+
+    ByteBuffer tree(String encoding) throws IOException{
+        ByteBuffer tree = trees.get(encoding);
+        if(tree!=null)
+            return tree;
+        List<String[]> updates = new ArrayList<String[]>();
+        if(encoding.endsWith("L"))              //a sync_mkdir/sync_cd line per directory
+            treeLines(dir,updates);
+        else                                    //one sync_snapshot message
+            updates.add(new String[]{"sync_snapshot",name,TreeSnapshot.encodeText(dir,encoding.endsWith("Z"))});
+        state.fileUpdates(updates);             //then the files it holds
+        tree = encoding.startsWith("F") ? encodeFrames(updates) : encodeLines(updates);
+        trees.put(encoding,tree);
+        return tree;
+    }
+    void treeLines(File dir,List<String[]> updates){   //used to send entire directory when syncing, recursively
+        if(dir.isDirectory()){
+            updates.add(new String[]{"sync_mkdir",dir.getName()});
+            updates.add(new String[]{"sync_cd",dir.getName()});
+            for(File file : dir.listFiles()){
+                treeLines(file,updates);
+            }
+            updates.add(new String[]{"sync_cd",".."});
+        }
+    }
+
+    static ByteBuffer encodeLines(List<String[]> updates){ //as PrintWriter.println would write them
+        StringBuilder text = new StringBuilder();
+        for(String[] update : updates)
+            text.append(Command.join(update)).append(System.lineSeparator());
+        return ByteBuffer.wrap(text.toString().getBytes(Charset.defaultCharset())).asReadOnlyBuffer();
+    }
+    static ByteBuffer encodeFrames(List<String[]> updates){    //updates are not part of a request, id 0
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for(String[] update : updates){
+            byte[] frame = Frame.of(0,update).encode();
+            bytes.write(frame,0,frame.length);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray()).asReadOnlyBuffer();
+    }
+}
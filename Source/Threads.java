@@ -0,0 +1,42 @@
+import java.lang.reflect.Method;
+
+/*
+ * Starts the threads used for client sessions.
+ * With --virtual each session gets a virtual thread, these are looked up by reflection so the
+ * sources still build on JDKs without them (before 21), where we fall back to platform threads.
+ */
+public class Threads {
+    static Boolean virtual = false;     //set by --virtual
+    static Method ofVirtual,name,start; //Thread.ofVirtual(), Thread.Builder.name(String), Thread.Builder.start(Runnable)
+
+    static{
+        try{
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name",String.class);
+            start = builder.getMethod("start",Runnable.class);
+        }
+        catch(ReflectiveOperationException e){
+            ofVirtual = null;           //running on a JDK without virtual threads
+        }
+    }
+
+    static Boolean virtualSupported(){
+        return ofVirtual!=null;
+    }
+
+    static Thread start(String threadName,Runnable task){
+        if(virtual && ofVirtual!=null){
+            try{
+                Object builder = name.invoke(ofVirtual.invoke(null),threadName);
+                return (Thread)start.invoke(builder,task);
+            }
+            catch(ReflectiveOperationException e){
+                System.out.println("Virtual thread not started, using platform thread : "+e);
+            }
+        }
+        Thread thread = new Thread(task,threadName);
+        thread.start();
+        return thread;
+    }
+}
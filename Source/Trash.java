@@ -0,0 +1,80 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Trash mode (--trash) : rm renames the directory into ServerDir.trash/<user>/<entry> instead of deleting it,
+ * which is one atomic rename whatever the size of the tree. Until the session ends the entry can be moved back
+ * by undo, then the user's trash is handed to a background purger which deletes it with TreeDeleter.
+ * The trash is a sibling of ServerDir so it is on the same filesystem and never visible to clients.
+ */
+public class Trash implements Closeable {
+    Path dir;
+    ExecutorService purger;
+    AtomicLong entries;                 //to name the entries, unique for this run
+
+    Trash(Path root) throws IOException{
+        root = root.toAbsolutePath().normalize();
+        dir = root.resolveSibling(root.getFileName()+".trash");
+        Files.createDirectories(dir);
+        entries = new AtomicLong();
+        purger = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable,"trash-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+            for(Path leftover : stream)     //left by the last run
+                purge(leftover);
+        }
+    }
+
+    String put(Path target,String username) throws IOException{  //moves target to the trash, returns its entry
+        Files.createDirectories(dir.resolve(username));
+        String entry = username+"/"+Long.toString(System.currentTimeMillis(),36)+"-"+entries.incrementAndGet();
+        Files.move(target,dir.resolve(entry),StandardCopyOption.ATOMIC_MOVE);
+        return entry;
+    }
+
+    void restore(String entry,Path target) throws IOException{
+        Path trashed = dir.resolve(entry).normalize();
+        if(!trashed.startsWith(dir) || trashed.equals(dir) || !Files.exists(trashed))
+            throw new IOException("Trash entry "+entry+" doesn't exist");
+        if(Files.exists(target))
+            throw new IOException(target.getFileName()+" already exists");
+        Files.move(trashed,target,StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void purge(String username){        //session is over, its entries can't be restored anymore
+        purge(dir.resolve(username));
+    }
+    void purge(Path path){              //renamed first, so the user can trash again while it is being deleted
+        try{
+            if(!Files.exists(path))
+                return;
+            Path purged = dir.resolve(".purge-"+Long.toString(System.currentTimeMillis(),36)+"-"+entries.incrementAndGet());
+            Files.move(path,purged,StandardCopyOption.ATOMIC_MOVE);
+            purger.execute(() -> {
+                try{
+                    TreeDeleter.delete(purged);
+                }
+                catch(IOException e){
+                    System.out.println(e);
+                }
+            });
+        }
+        catch(IOException e){
+            System.out.println(e);
+        }
+    }
+
+    public void close(){
+        purger.shutdown();
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Recursive copy of a directory tree (cp -r) on the common fork/join pool, split like TreeDeleter : down to
+ * FORK_DEPTH every subdirectory and every file is a task of its own, deeper subtrees are copied by the task that
+ * reached them with walkFileTree. File bodies are copied with FileChannel.transferTo, the kernel moves them from
+ * file to file without going through the heap. The target must not exist, the first failure is thrown once the
+ * copy is over and what was copied until then is deleted.
+ */
+public class TreeCopier {
+    final static int FORK_DEPTH = 3;
+
+    AtomicInteger directories;
+    AtomicInteger files;
+    AtomicLong bytes;
+
+    TreeCopier(){
+        directories = new AtomicInteger();
+        files = new AtomicInteger();
+        bytes = new AtomicLong();
+    }
+
+    static TreeCopier copy(Path source,Path target) throws IOException{
+        TreeCopier copier = new TreeCopier();
+        if(!Files.isDirectory(source,LinkOption.NOFOLLOW_LINKS)){
+            copier.copyFile(source,target);
+            return copier;
+        }
+        if(target.toAbsolutePath().normalize().startsWith(source.toAbsolutePath().normalize()))
+            throw new IOException("can't copy "+source.getFileName()+" into itself");
+        try{
+            ForkJoinPool.commonPool().invoke(copier.new CopyTask(source,target,0));
+        }
+        catch(UncheckedIOException e){
+            Throwable cause = e;
+            while(cause instanceof UncheckedIOException)   //fork/join may wrap it again when rethrowing across threads
+                cause = cause.getCause();
+            if(copier.directories.get()>0)      //the target was made by this copy
+                TreeDeleter.delete(target);
+            throw (IOException)cause;
+        }
+        return copier;
+    }
+
+    void copyFile(Path source,Path target) throws IOException{
+        if(Files.isSymbolicLink(source)){
+            Files.copy(source,target,LinkOption.NOFOLLOW_LINKS);
+            return;
+        }
+        try(FileChannel in = FileChannel.open(source,StandardOpenOption.READ);
+            FileChannel out = FileChannel.open(target,StandardOpenOption.CREATE_NEW,StandardOpenOption.WRITE)){
+            long size = in.size(), copied = 0;
+            try{
+                while(copied<size){
+                    long n = in.transferTo(copied,size-copied,out);
+                    if(n==0)                    //truncated while copying
+                        break;
+                    copied += n;
+                }
+                Files.setLastModifiedTime(target,Files.getLastModifiedTime(source));
+            }
+            catch(IOException e){
+                Files.deleteIfExists(target);
+                throw e;
+            }
+            bytes.addAndGet(copied);
+        }
+        files.incrementAndGet();
+    }
+    void createDirectory(Path target) throws IOException{
+        Files.createDirectory(target);          //FileAlreadyExistsException if the target is there already
+        directories.incrementAndGet();
+    }
+
+    class CopyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        transient Path source,target;       //tasks are never serialized
+        int depth;
+
+        CopyTask(Path source,Path target,int depth){
+            this.source = source;
+            this.target = target;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute(){
+            try{
+                if(depth>=FORK_DEPTH){
+                    walk(source,target);
+                    return;
+                }
+                createDirectory(target);
+                List<RecursiveAction> subtasks = new ArrayList<RecursiveAction>();
+                try(DirectoryStream<Path> stream = Files.newDirectoryStream(source)){
+                    for(Path child : stream){
+                        Path copy = target.resolve(child.getFileName().toString());
+                        if(Files.isDirectory(child,LinkOption.NOFOLLOW_LINKS))
+                            subtasks.add(new CopyTask(child,copy,depth+1));
+                        else
+                            subtasks.add(new FileTask(child,copy));
+                    }
+                }
+                invokeAll(subtasks);            //rethrows the failure of a subtask
+            }
+            catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+    class FileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        transient Path source,target;       //tasks are never serialized
+
+        FileTask(Path source,Path target){
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        protected void compute(){
+            try{
+                copyFile(source,target);
+            }
+            catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    void walk(Path source,Path target) throws IOException{ //sequential copy of a subtree, parents first
+        Files.walkFileTree(source,new SimpleFileVisitor<Path>(){
+            @Override
+            public FileVisitResult preVisitDirectory(Path path,BasicFileAttributes attributes) throws IOException{
+                createDirectory(target.resolve(source.relativize(path).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFile(Path path,BasicFileAttributes attributes) throws IOException{
+                copyFile(path,target.resolve(source.relativize(path).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
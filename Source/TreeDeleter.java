@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Recursive delete of a directory tree on the common fork/join pool.
+ * The first levels of the tree are split into one task per subdirectory, subtrees below FORK_DEPTH
+ * are deleted by the task that reached them with walkFileTree. Entries are deleted without a stat,
+ * a directory is recognised by its delete failing with DirectoryNotEmptyException.
+ * Unlike File.delete() failures are not ignored, the first one is thrown once the walk is over.
+ * deleteLater queues the trees on one background thread, each of them still deleted in parallel by delete().
+ */
+public class TreeDeleter {
+    final static int FORK_DEPTH = 3;
+    final static ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable,"tree-deleter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static boolean delete(Path path) throws IOException{   //false if path didn't exist
+        try{
+            Files.delete(path);                 //file, link or empty directory
+            return true;
+        }
+        catch(NoSuchFileException e){
+            return false;
+        }
+        catch(DirectoryNotEmptyException e){
+            //split below
+        }
+        try{
+            ForkJoinPool.commonPool().invoke(new DeleteTask(path,0));
+        }
+        catch(UncheckedIOException e){
+            Throwable cause = e;
+            while(cause instanceof UncheckedIOException)   //fork/join may wrap it again when rethrowing across threads
+                cause = cause.getCause();
+            throw (IOException)cause;
+        }
+        return true;
+    }
+
+    static void deleteLater(Path path) throws IOException{ //renames path out of the way right away, deletes it in the background
+        if(!Files.exists(path))
+            return;
+        Path moved = path.resolveSibling("."+path.getFileName()+".deleting-"+System.nanoTime());
+        Files.move(path,moved,StandardCopyOption.ATOMIC_MOVE);
+        BACKGROUND.execute(() -> {
+            try{
+                delete(moved);
+            }
+            catch(IOException e){
+                System.out.println(e);
+            }
+        });
+    }
+
+    static class DeleteTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        transient Path dir;     //tasks are never serialized
+        int depth;
+
+        DeleteTask(Path dir,int depth){
+            this.dir = dir;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute(){
+            try{
+                if(depth>=FORK_DEPTH){
+                    walk(dir);
+                    return;
+                }
+                List<DeleteTask> subtasks = new ArrayList<DeleteTask>();
+                try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir)){
+                    for(Path child : stream){
+                        try{
+                            Files.delete(child);
+                        }
+                        catch(NoSuchFileException e){
+                            //deleted meanwhile
+                        }
+                        catch(DirectoryNotEmptyException e){
+                            subtasks.add(new DeleteTask(child,depth+1));
+                        }
+                    }
+                }
+                invokeAll(subtasks);            //rethrows the failure of a subtask
+                Files.deleteIfExists(dir);
+            }
+            catch(IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    static void walk(Path dir) throws IOException{ //sequential delete of a subtree, children first
+        Files.walkFileTree(dir,new SimpleFileVisitor<Path>(){
+            @Override
+            public FileVisitResult visitFile(Path path,BasicFileAttributes attributes) throws IOException{
+                Files.deleteIfExists(path);
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFileFailed(Path path,IOException e) throws IOException{
+                if(e instanceof NoSuchFileException)
+                    return FileVisitResult.CONTINUE;
+                throw e;
+            }
+            @Override
+            public FileVisitResult postVisitDirectory(Path path,IOException e) throws IOException{
+                if(e!=null)
+                    throw e;
+                Files.deleteIfExists(path);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
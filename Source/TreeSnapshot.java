@@ -0,0 +1,110 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/*
+ * Whole directory tree in one message, used by sync instead of a sync_mkdir/sync_cd/sync_cd .. line per directory.
+ *
+ * Manifest : byte format ('P' plain, 'Z' deflated) followed by the (deflated) entries
+ *            every directory in preorder as  short depth | UTF name,  ended by depth -1
+ * The root of the snapshot has depth 0, its children depth 1 and so on.
+ */
+public class TreeSnapshot {
+    final static byte PLAIN = 'P', DEFLATED = 'Z';
+
+    static byte[] encode(File dir,Boolean compress) throws IOException{
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.write(compress ? DEFLATED : PLAIN);
+        OutputStream stream = compress ? new DeflaterOutputStream(bytes,new Deflater(Deflater.BEST_SPEED)) : bytes;
+        DataOutputStream out = new DataOutputStream(stream);
+        Path root = dir.toPath();
+        Files.walkFileTree(root,new SimpleFileVisitor<Path>(){
+            @Override
+            public FileVisitResult preVisitDirectory(Path path,BasicFileAttributes attributes) throws IOException{
+                out.writeShort(path.equals(root) ? 0 : root.relativize(path).getNameCount());
+                out.writeUTF(path.getFileName().toString());
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFileFailed(Path path,IOException e){
+                return FileVisitResult.CONTINUE;    //deleted while walking, skip it
+            }
+        });
+        out.writeShort(-1);
+        out.close();
+        return bytes.toByteArray();
+    }
+    static String encodeText(File dir,Boolean compress) throws IOException{    //for the text protocol
+        return Base64.getEncoder().encodeToString(encode(dir,compress));
+    }
+
+    static List<List<String>> decode(byte[] snapshot) throws IOException{  //relative paths of the directories, grouped by depth
+        InputStream stream = new ByteArrayInputStream(snapshot,1,snapshot.length-1);
+        if(snapshot[0]==DEFLATED)
+            stream = new InflaterInputStream(stream);
+        else if(snapshot[0]!=PLAIN)
+            throw new IOException("Unknown snapshot format");
+        DataInputStream in = new DataInputStream(stream);
+        List<List<String>> levels = new ArrayList<List<String>>();
+        List<String> path = new ArrayList<String>();  //path of the last directory read, one name per depth
+        int depth;
+        while((depth = in.readShort())!=-1){
+            if(depth>path.size())
+                throw new IOException("Invalid snapshot");
+            String name = in.readUTF();
+            while(path.size()>depth)
+                path.remove(path.size()-1);
+            path.add(name);
+            if(levels.size()==depth)
+                levels.add(new ArrayList<String>());
+            levels.get(depth).add(String.join("/",path));
+        }
+        return levels;
+    }
+
+    static int materialize(byte[] snapshot,File parent) throws IOException{ //creates the tree inside parent, returns number of directories
+        List<List<String>> levels = decode(snapshot);
+        int count = 0;
+        for(List<String> level : levels){   //parents were created with the previous level, a level is created in parallel
+            try{
+                level.parallelStream().forEach(path -> {
+                    try{
+                        Files.createDirectory(new File(parent,path).toPath());
+                    }
+                    catch(FileAlreadyExistsException e){
+                        //already synced
+                    }
+                    catch(IOException e){
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            catch(UncheckedIOException e){
+                throw e.getCause();
+            }
+            count += level.size();
+        }
+        return count;
+    }
+    static int materialize(String snapshot,File parent) throws IOException{
+        return materialize(Base64.getDecoder().decode(snapshot),parent);
+    }
+}
@@ -0,0 +1,236 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/*
+ * Undo of a log and of everything depending on it (see DependencyIndex.cascade) as one batch.
+ * Logger turns the cascade into the complementary operations, latest log first, and merge() drops the ones made
+ * pointless by a later rm of a directory above them. apply() runs them directly on the DirectoryManager from home,
+ * keeping what is needed to reverse each one, and if one fails the applied ones are reversed in the opposite order
+ * so the directories are left as they were and no log is removed.
+ *
+ * An rm of the plan can't really delete until the whole plan succeeded : in trash mode the directory goes to the
+ * trash as for a client rm, otherwise it is moved to ServerDir.undo/<user>-<n> which is deleted once the plan is done.
+ * Bulk commands (see Bulk) run their steps as a plan too, all of them or none.
+ */
+public class UndoPlan {
+    final static long PROGRESS_MS = 500;        //least time between two progress reports
+
+    static class Step {
+        String op;              //mkdir, rm, mv, rn, cp or restore (rm in trash mode)
+        String first;           //path relative to home, trash entry for restore
+        String second;          //target of mv, rn and cp, path of restore
+        String undone;          //set by apply : trash entry or staged name of rm, first created directory of mkdir
+
+        Step(String op,String first,String second){
+            this.op = op;
+            this.first = first;
+            this.second = second;
+        }
+        String[] paths(){       //directories it changes
+            switch(op){
+                case "restore":
+                case "cp": return new String[]{second};
+                case "mv":
+                case "rn": return new String[]{first,second};
+                default: return new String[]{first};
+            }
+        }
+        public String toString(){
+            return second==null ? Command.join(op,first) : Command.join(op,first,second);
+        }
+    }
+
+    DirectoryManager directoryManager;
+    long[] sequences;           //logs undone by the plan, removed by the Logger once it succeeded
+    List<Step> steps;           //in the order they are applied
+    int merged;                 //steps dropped by merge()
+    Path staging;               //where rm moves directories when there is no trash, made on first use
+    int staged;
+    Boolean undo;               //false for a bulk command, only changes the messages
+    int copiedDirectories;      //by the cp steps
+    int copiedFiles;
+
+    UndoPlan(DirectoryManager directoryManager,long[] sequences){
+        this.directoryManager = directoryManager;
+        this.sequences = sequences;
+        steps = new ArrayList<Step>();
+        merged = 0;
+        staged = 0;
+        undo = true;
+        copiedDirectories = 0;
+        copiedFiles = 0;
+    }
+
+    void add(String op,String first,String second){
+        steps.add(new Step(op,op.equals("restore") ? first : normalize(first),second==null ? null : normalize(second)));
+    }
+    static String normalize(String path){
+        return String.join("/",DependencyIndex.segments(path));
+    }
+
+    void merge(){               //drops the steps inside a directory the plan removes afterwards
+        TreeSet<String> removed = new TreeSet<String>();   //directories removed by a later kept rm
+        List<Step> kept = new ArrayList<Step>();
+        for(int i=steps.size()-1; i>=0; i--){
+            Step step = steps.get(i);
+            //mkdir may create the directories above its path too, so it is always kept
+            if(!step.op.equals("mkdir") && inside(step,removed)){
+                merged++;
+                continue;
+            }
+            for(String path : step.paths()){       //the later rm no longer removes what this step leaves there
+                for(String above = path; !above.isEmpty(); above = parent(above))
+                    removed.remove(above);
+                removed.subSet(path+"/",path+"/\uffff").clear();
+            }
+            if(step.op.equals("rm"))
+                removed.add(step.first);
+            kept.add(step);
+        }
+        Collections.reverse(kept);
+        steps = kept;
+    }
+    static Boolean inside(Step step,TreeSet<String> removed){  //all its paths strictly below a removed directory
+        for(String path : step.paths()){
+            Boolean found = false;
+            for(String above = parent(path); !above.isEmpty() && !found; above = parent(above))
+                found = removed.contains(above);
+            if(!found)
+                return false;
+        }
+        return true;
+    }
+    static String parent(String path){          //"" at the top
+        int slash = path.lastIndexOf('/');
+        return slash==-1 ? "" : path.substring(0,slash);
+    }
+
+    void apply(Consumer<String> progress) throws IOException{
+        File currDir = directoryManager.PWD;    //logged paths are relative to home
+        directoryManager.PWD = directoryManager.home;
+        try{
+            long reported = System.currentTimeMillis();
+            for(int applied=0; applied<steps.size(); applied++){
+                Step step = steps.get(applied);
+                try{
+                    apply(step);
+                }
+                catch(IOException e){
+                    rollback(applied);
+                    throw new IOException((undo ? "Undo of " : "")+step+" failed ("+e.getMessage()+"), "+applied+" operations rolled back",e);
+                }
+                if(System.currentTimeMillis()-reported>=PROGRESS_MS){
+                    reported = System.currentTimeMillis();
+                    progress.accept((undo ? "Undo " : "Done ")+(applied+1)+"/"+steps.size()+" ...");
+                }
+            }
+            if(staging!=null)                   //nothing to roll back anymore
+                TreeDeleter.deleteLater(staging);
+        }
+        finally{
+            directoryManager.PWD = currDir;
+        }
+    }
+    void apply(Step step) throws IOException{
+        switch(step.op){
+            case "mkdir":
+                step.undone = firstMissing(step.first);
+                if(step.undone==null)
+                    throw new IOException(step.first+" already exists");
+                directoryManager.createDirectory(step.first);
+                break;
+            case "rm":
+                if(directoryManager.trash!=null)
+                    step.undone = directoryManager.trashDirectory(step.first);
+                else{
+                    step.undone = Integer.toString(staged++);
+                    directoryManager.stageDirectory(step.first,staging().resolve(step.undone));
+                }
+                break;
+            case "restore":
+                directoryManager.restoreDirectory(step.first,step.second);
+                break;
+            case "mv":
+                directoryManager.moveDirectory(step.first,step.second);
+                break;
+            case "rn":
+                directoryManager.renameDirectory(step.first,step.second);
+                break;
+            case "cp":
+                TreeCopier copied = directoryManager.copyDirectory(step.first,step.second);
+                copiedDirectories += copied.directories.get();
+                copiedFiles += copied.files.get();
+                break;
+            default:
+                throw new IOException("Unknown undo operation "+step.op);
+        }
+    }
+    void rollback(int applied){                 //reverses the first applied steps, latest first
+        for(int i=applied-1; i>=0; i--){
+            Step step = steps.get(i);
+            try{
+                switch(step.op){
+                    case "mkdir":
+                        directoryManager.deleteDirectory(step.undone);
+                        break;
+                    case "rm":
+                        if(directoryManager.trash!=null)
+                            directoryManager.restoreDirectory(step.undone,step.first);
+                        else
+                            directoryManager.unstageDirectory(staging.resolve(step.undone),step.first);
+                        break;
+                    case "restore":
+                        directoryManager.trashDirectory(step.second);
+                        break;
+                    case "mv":
+                        directoryManager.moveDirectory(step.second,step.first);
+                        break;
+                    case "rn":
+                        directoryManager.renameDirectory(step.second,step.first);
+                        break;
+                    case "cp":
+                        directoryManager.deleteDirectory(step.second);
+                        break;
+                }
+            }
+            catch(IOException e){               //keeps going, the others may still be reversed
+                System.out.println("Rollback of "+step+" failed : "+e);
+            }
+        }
+        try{
+            if(staging!=null)
+                Files.deleteIfExists(staging);
+        }
+        catch(IOException e){
+            System.out.println(e);
+        }
+    }
+
+    String firstMissing(String path){           //first directory of path mkdir would create, null if all exist
+        String[] dirs = DependencyIndex.segments(path);
+        File dir = directoryManager.PWD;
+        for(int i=0; i<dirs.length; i++){
+            dir = new File(dir,dirs[i]);
+            if(!directoryManager.exists(dir))
+                return String.join("/",Arrays.copyOfRange(dirs,0,i+1));
+        }
+        return null;
+    }
+    Path staging() throws IOException{
+        if(staging==null){
+            Path root = directoryManager.root.toPath().toAbsolutePath().normalize();
+            staging = root.resolveSibling(root.getFileName()+".undo")
+                        .resolve(directoryManager.username+"-"+Long.toString(System.nanoTime(),36));
+            Files.createDirectories(staging);
+        }
+        return staging;
+    }
+}
@@ -0,0 +1,225 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One watch service for the whole server.
+ * A synced directory is registered with all its subdirectories (and the ones created later) the first time
+ * a client subscribes to it, and a single thread waiting in take() tells the directory's topic which directory
+ * of the tree changed. Changes of a tree are held until no event came for quiet ms (at most SyncTopic.MAX_DELAY
+ * windows), then its topic computes one delta for all of them and all its subscribers, it must not block.
+ * With --index every directory listed by the namespace index is watched as well and its changes go to the index,
+ * at most MAX_INDEXED of them : past that the oldest one is unwatched and the index forgets its listing, it is
+ * listed and watched again the next time it is needed.
+ */
+public class WatchHub implements Runnable, Closeable {
+    final static int MAX_INDEXED = 8192;            //directories watched for the index, each one costs a kernel watch
+    WatchService watchService;
+    Map<WatchKey,Path> dirs;                        //directory registered with each key
+    Map<Path,SyncTopic> topics;                     //synced root => its state and the sessions syncing it
+    Map<Path,WatchKey> indexed;                     //directories watched for the index, oldest first, guarded by the hub
+    NamespaceIndex index;                           //null without --index
+    static long quiet = 50;                         //ms without events before changes are sent, set by --quiet
+    Set<SyncTopic> pending;                         //topics with changes not sent yet, only used by the hub thread
+    Thread thread;
+
+    WatchHub() throws IOException{
+        watchService = FileSystems.getDefault().newWatchService();
+        dirs = new ConcurrentHashMap<WatchKey,Path>();
+        topics = new ConcurrentHashMap<Path,SyncTopic>();
+        indexed = new LinkedHashMap<Path,WatchKey>();
+        pending = new LinkedHashSet<SyncTopic>();
+        thread = new Thread(this,"watch-hub");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    SyncTopic subscribe(Path root,ServerThread session) throws IOException{  //sends session the current tree
+        return subscribe(root,session,null);
+    }
+    synchronized SyncTopic subscribe(Path root,ServerThread session,String hash) throws IOException{  //only the version if the client's copy has that root hash
+        root = root.toAbsolutePath().normalize();
+        SyncTopic topic = topics.get(root);
+        if(topic==null){                            //first subscriber, start watching the tree
+            register(root);                         //before reading it, so no change gets lost in between
+            topic = new SyncTopic(root.toFile());
+            topics.put(root,topic);
+        }
+        if(hash==null)
+            topic.subscribe(session);
+        else
+            topic.subscribe(session,hash);
+        return topic;
+    }
+    synchronized void unsubscribe(Path root,ServerThread session){
+        root = root.toAbsolutePath().normalize();
+        SyncTopic topic = topics.get(root);
+        if(topic==null || !topic.unsubscribe(session))
+            return;
+        topics.remove(root);                        //last subscriber, stop watching the tree
+        for(Map.Entry<WatchKey,Path> entry : dirs.entrySet()){
+            if(entry.getValue().startsWith(root) && rootOf(entry.getValue())==null && !indexed.containsKey(entry.getValue())){
+                entry.getKey().cancel();
+                dirs.remove(entry.getKey());
+            }
+        }
+    }
+
+    synchronized List<Path> watch(Path dir) throws IOException{  //watches only dir itself, for the index, returns the directories unwatched to make room
+        dir = dir.toAbsolutePath().normalize();
+        //registering again gives the same key, or a new one if dir was recreated
+        WatchKey key = dir.register(watchService,StandardWatchEventKinds.ENTRY_CREATE,StandardWatchEventKinds.ENTRY_DELETE,StandardWatchEventKinds.ENTRY_MODIFY);
+        dirs.put(key,dir);
+        indexed.remove(dir);                        //listed again, now the newest
+        indexed.put(dir,key);
+        List<Path> unwatched = new ArrayList<Path>();
+        for(Iterator<Map.Entry<Path,WatchKey>> oldest = indexed.entrySet().iterator(); indexed.size()>MAX_INDEXED; ){
+            Map.Entry<Path,WatchKey> entry = oldest.next();
+            oldest.remove();
+            unwatched.add(entry.getKey());
+            if(rootOf(entry.getKey())==null){       //still needed by a synced tree otherwise
+                entry.getValue().cancel();
+                dirs.remove(entry.getValue());
+            }
+        }
+        return unwatched;
+    }
+
+    void register(Path dir) throws IOException{    //registers dir and every directory below it
+        Files.walkFileTree(dir,new SimpleFileVisitor<Path>(){
+            @Override
+            public FileVisitResult preVisitDirectory(Path path,BasicFileAttributes attributes) throws IOException{
+                WatchKey key = path.register(watchService,StandardWatchEventKinds.ENTRY_CREATE,StandardWatchEventKinds.ENTRY_DELETE,StandardWatchEventKinds.ENTRY_MODIFY);
+                dirs.put(key,path);
+                return FileVisitResult.CONTINUE;
+            }
+            @Override
+            public FileVisitResult visitFileFailed(Path path,IOException e){
+                return FileVisitResult.CONTINUE;    //deleted while walking
+            }
+        });
+    }
+
+    Path rootOf(Path dir){                          //synced root containing dir, null if none
+        for(Path path = dir; path!=null; path = path.getParent()){
+            if(topics.containsKey(path))
+                return path;
+        }
+        return null;
+    }
+
+    public void run(){
+        try{
+            while(true){
+                WatchKey key = pending.isEmpty() ? watchService.take() : watchService.poll(untilDue(),TimeUnit.MILLISECONDS);
+                if(key!=null){
+                    Path dir = dirs.get(key);
+                    List<WatchEvent<?>> events = key.pollEvents();
+                    if(!key.reset() && dirs.remove(key)!=null){ //directory was deleted
+                        synchronized(this){
+                            indexed.remove(dir);
+                        }
+                    }
+                    if(dir!=null)
+                        dispatch(dir,events);
+                }
+                publishDue();
+            }
+        }
+        catch(InterruptedException | ClosedWatchServiceException e){
+            //hub closed
+        }
+    }
+
+    void dispatch(Path dir,List<WatchEvent<?>> events){
+        Boolean structural = false, overflow = false;
+        for(WatchEvent<?> event : events){
+            if(event.kind()==StandardWatchEventKinds.OVERFLOW){
+                overflow = true;
+                if(index!=null)
+                    index.invalidate(dir);
+            }
+            else if(event.kind()==StandardWatchEventKinds.ENTRY_CREATE){
+                structural = true;
+                Path created = dir.resolve((Path)event.context());
+                Boolean directory = Files.isDirectory(created);
+                if(index!=null)
+                    index.created(created,directory);
+                if(directory){
+                    try{
+                        synchronized(this){         //watch the new subtree too, including what was created in it meanwhile
+                            if(rootOf(dir)!=null)
+                                register(created);
+                        }
+                    }
+                    catch(IOException e){
+                        System.out.println(e);
+                    }
+                }
+            }
+            else if(event.kind()==StandardWatchEventKinds.ENTRY_DELETE){
+                structural = true;
+                if(index!=null)
+                    index.deleted(dir.resolve((Path)event.context()));
+            }
+            else if(event.kind()==StandardWatchEventKinds.ENTRY_MODIFY && !Files.isDirectory(dir.resolve((Path)event.context())))
+                structural = true;                  //contents of a file, sent as sync_file
+            //ENTRY_MODIFY of a directory only means its children changed, reported by their own events
+        }
+        if(!structural && !overflow)
+            return;
+        Path root = rootOf(dir);
+        if(root==null)
+            return;
+        String scope = overflow ? null : SyncState.key(root,dir);
+        SyncTopic topic = topics.get(root);
+        if(topic!=null){                            //sent once the tree is quiet
+            topic.touched(scope,System.currentTimeMillis());
+            pending.add(topic);
+        }
+    }
+    long untilDue(){
+        long due = Long.MAX_VALUE;
+        for(SyncTopic topic : pending)
+            due = Math.min(due,topic.due(quiet));
+        return Math.max(0,due-System.currentTimeMillis());
+    }
+    void publishDue(){
+        long now = System.currentTimeMillis();
+        for(Iterator<SyncTopic> topics = pending.iterator(); topics.hasNext(); ){
+            SyncTopic topic = topics.next();
+            if(topic.due(quiet)<=now){
+                topics.remove();
+                topic.publish();
+            }
+        }
+    }
+
+    public void close(){
+        try{
+            watchService.close();
+        }
+        catch(IOException e){
+            System.out.println(e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BulkTest {
+    @TempDir
+    Path root;
+    DirectoryManager directoryManager;
+    Path home;
+
+    @BeforeEach
+    void open() throws IOException{
+        directoryManager = new DirectoryManager(root.resolve("ServerDir").toString(),"u");
+        home = directoryManager.home.toPath();
+        for(String dir : new String[]{"src/a1","src/a2","src/b","src/.hidden","src/a1/deep","dst"})
+            Files.createDirectories(home.resolve(dir));
+    }
+    Bulk bulk(String command){
+        return new Bulk(Command.split(command),directoryManager);
+    }
+    static List<String> steps(UndoPlan plan){
+        List<String> steps = new ArrayList<String>();
+        for(UndoPlan.Step step : plan.steps)
+            steps.add(step.toString());
+        return steps;
+    }
+
+    @Test
+    void onlyTheFormsOfSeveralPathsAreBulk(){
+        assertTrue(Bulk.isBulk(Command.split("mkdir x y")));
+        assertFalse(Bulk.isBulk(Command.split("mkdir x*")));
+        assertTrue(Bulk.isBulk(Command.split("rm src/*")));
+        assertFalse(Bulk.isBulk(Command.split("rm src")));
+        assertTrue(Bulk.isBulk(Command.split("mv src/a? dst")));
+        assertFalse(Bulk.isBulk(Command.split("mv src dst")));
+        assertTrue(Bulk.isBulk(Command.split("cp a b")));
+    }
+
+    @Test
+    void globExpandsSegmentBySegmentInNameOrder() throws IOException{
+        assertEquals(List.of("src/a1","src/a2","src/b"),bulk("rm src/*").glob("src/*"));
+        assertEquals(List.of("src/.hidden"),bulk("rm src/.*").glob("src/.*"));
+        assertEquals(List.of("src/a1/deep"),bulk("rm */a?/deep").glob("*/a?/deep"));
+        assertEquals(List.of("src/a1","src/b"),bulk("rm src/{a1,b}").glob("src/{a1,b}"));
+    }
+
+    @Test
+    void rmDropsPathsInsideAnotherOne() throws IOException{
+        UndoPlan plan = bulk("rm src/a1/deep src/a*").plan();
+        assertEquals(List.of("rm src/a1","rm src/a2"),steps(plan));
+    }
+
+    @Test
+    void mvOfSeveralSourcesGoesIntoTheTarget() throws IOException{
+        Bulk bulk = bulk("mv src/a* dst");
+        UndoPlan plan = bulk.plan();
+        assertEquals(List.of("mv src/a1 dst/a1","mv src/a2 dst/a2"),steps(plan));
+        assertEquals("2 entries were moved to dst",bulk.response(plan));
+        IOException notDir = assertThrows(IOException.class,() -> bulk("mv src/a* missing").plan());
+        assertEquals("missing is not a directory",notDir.getMessage());
+    }
+
+    @Test
+    void patternWithoutMatchIsAnError(){
+        IOException none = assertThrows(IOException.class,() -> bulk("rm src/z*").plan());
+        assertEquals("no match for src/z*",none.getMessage());
+    }
+
+    @Test
+    void badPatternIsRejectedBeforeAnythingRuns(){
+        for(String command : new String[]{"rm [a","rm src/[a","mv src/{a dst","cp -r x [ dst"}){
+            IllegalArgumentException bad = assertThrows(IllegalArgumentException.class,() -> bulk(command),command);
+            assertTrue(bad.getMessage().startsWith("Invalid Format"),bad.getMessage());
+        }
+        bulk("mkdir [a b");                         //names are taken as they are
+        bulk("mv src/a* [a");                       //the target isn't expanded
+    }
+
+    @Test
+    void missingOperandsAreRejected(){
+        for(String command : new String[]{"rm","mkdir","mv a","cp -r a"})
+            assertThrows(IllegalArgumentException.class,() -> bulk(command),command);
+    }
+}
@@ -0,0 +1,40 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class CommandTest {
+    static void roundTrip(String... tokens){
+        assertArrayEquals(tokens,Command.split(Command.join(tokens)),Command.join(tokens));
+    }
+
+    @Test
+    void splitsOnSpacesAndQuotes(){
+        assertArrayEquals(new String[]{"mv","my dir","other"},Command.split("mv \"my dir\" other"));
+        assertArrayEquals(new String[]{"mkdir","a","b"},Command.split("  mkdir   a b  "));
+        assertArrayEquals(new String[]{"cd","a\"b\\c"},Command.split("cd \"a\\\"b\\\\c\""));
+        assertArrayEquals(new String[]{"ab c"},Command.split("a\"b c\""));     //a quote inside a token continues it
+    }
+
+    @Test
+    void emptyLineAndEmptyTokens(){
+        assertArrayEquals(new String[]{""},Command.split(""));
+        assertArrayEquals(new String[]{""},Command.split("   "));
+        assertArrayEquals(new String[]{"rm",""},Command.split("rm \"\""));
+        assertArrayEquals(new String[]{"rm","a b"},Command.split("rm \"a b"));  //unterminated quote runs to the end
+    }
+
+    @Test
+    void joinQuotesOnlyWhatNeedsIt(){
+        assertEquals("mv a b",Command.join("mv","a","b"));
+        assertEquals("mv \"my dir\" \"\" \"a\\\"b\" \"c\\\\d\"",Command.join("mv","my dir","","a\"b","c\\d"));
+    }
+
+    @Test
+    void joinIsTheInverseOfSplit(){
+        roundTrip("mv","my dir","other");
+        roundTrip("rm","");
+        roundTrip("cd","a\"b","c\\","\\\"","  ");
+        roundTrip("mkdir","ünï cödé","日本");
+    }
+}
@@ -0,0 +1,121 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class DependencyIndexTest {
+    LogStore logs;
+    DependencyIndex index;
+    long sequence;
+
+    @BeforeEach
+    void open(){
+        logs = new LogStore(new PathDictionary());
+        index = new DependencyIndex(logs);
+        sequence = 0;
+    }
+    int add(String command){
+        int i = logs.add(++sequence,0,command,null);
+        index.add(i);
+        return i;
+    }
+    long[] cascade(String command){             //sequences undone with the first log of command
+        for(int i=0; i<logs.size(); i++){
+            if(logs.command(i).equals(command))
+                return index.cascade(i);
+        }
+        throw new AssertionError(command+" isn't logged");
+    }
+    long[] bruteForce(int index){               //same as cascade, comparing every later log with Log.isDependentOn
+        List<Log> all = new ArrayList<Log>();
+        for(Log log : logs)
+            all.add(log);
+        TreeSet<Long> found = new TreeSet<Long>();
+        found.add(all.get(index).sequence);
+        for(Boolean grew = true; grew; ){
+            grew = false;
+            for(Log log : all){
+                if(found.contains(log.sequence))
+                    continue;
+                for(Log undone : all){
+                    if(found.contains(undone.sequence) && log.isDependentOn(undone)){
+                        grew = found.add(log.sequence);
+                        break;
+                    }
+                }
+            }
+        }
+        return found.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @Test
+    void cascadeFollowsDependentsOfDependents(){
+        add("mkdir a/b");                       //1
+        add("mv a c");                          //2 moves what 1 created
+        add("rm c");                            //3 removes what 2 moved
+        add("mkdir ab");                        //4 ab isn't above a/b
+        assertArrayEquals(new long[]{1,2,3},cascade("mkdir a/b"));
+        assertArrayEquals(new long[]{2,3},cascade("mv a c"));
+        assertArrayEquals(new long[]{4},cascade("mkdir ab"));
+    }
+
+    @Test
+    void earlierLogsAreNeverDependents(){
+        add("rm a");
+        add("mkdir a");                         //created again
+        assertArrayEquals(new long[]{1,2},cascade("rm a"));
+        assertArrayEquals(new long[]{2},cascade("mkdir a"));
+    }
+
+    @Test
+    void pathsAreComparedBySegments(){
+        add("mkdir ./a/b/");
+        add("rn a/b/. c");
+        add("rm a/.");
+        assertArrayEquals(new long[]{1,2,3},cascade("mkdir a/b"));
+    }
+
+    @Test
+    void aBatchIsUndoneAsAWhole(){
+        add("mkdir a");                         //1
+        add("mkdir b");                         //2, 3 and 4 are mkdir b c/x d
+        add("mkdir c/x");
+        add("mkdir d");
+        logs.batch(2,3,"mkdir b c/x d");
+        add("rm c");                            //5 removes what the batch created
+        assertArrayEquals(new long[]{2,3,4,5},cascade("mkdir b"));
+        assertArrayEquals(new long[]{2,3,4,5},cascade("mkdir d"));
+        assertArrayEquals(new long[]{1},cascade("mkdir a"));
+    }
+
+    @Test
+    void removedLogsAreForgotten(){
+        add("mkdir a/b");
+        add("rm a");
+        add("mv a c");
+        index.remove(logs.find(2));
+        logs.removeAll(new long[]{2});
+        assertArrayEquals(new long[]{1,3},cascade("mkdir a/b"));
+    }
+
+    @Test
+    void sameAsComparingEveryLog(){
+        String[] ops = {"mkdir","rm","mv","rn","ls","cp"};
+        String[] paths = {"a","b","a/b","a/c","b/a","ab","a/b/c","c"};
+        Random random = new Random(42);
+        for(int i=0; i<300; i++){
+            String op = ops[random.nextInt(ops.length)];
+            String path = paths[random.nextInt(paths.length)];
+            add(op.equals("mv") || op.equals("rn") || op.equals("cp") ? Command.join(op,path,paths[random.nextInt(paths.length)]) : Command.join(op,path));
+        }
+        for(int i=0; i<logs.size(); i+=7)
+            assertArrayEquals(bruteForce(i),index.cascade(i),logs.command(i));
+        assertEquals(300,logs.size());
+    }
+}
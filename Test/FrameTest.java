@@ -0,0 +1,83 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class FrameTest {
+    static DataInputStream stream(byte[]... frames){
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for(byte[] frame : frames)
+            bytes.write(frame,0,frame.length);
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+    static byte[] length(int length,int body){  //length prefix followed by body zero bytes
+        return ByteBuffer.allocate(4+body).putInt(length).array();
+    }
+
+    @Test
+    void encodedFramesAreReadBack() throws IOException{
+        Frame mkdir = Frame.of(7,"mkdir","my dir","","ünï");
+        Frame done = new Frame(Frame.Opcode.DONE,7);
+        DataInputStream in = stream(mkdir.encode(),done.encode());
+        Frame read = Frame.read(in);
+        assertEquals(Frame.Opcode.MKDIR,read.opcode);
+        assertEquals(7,read.requestId);
+        assertArrayEquals(new String[]{"mkdir","my dir","","ünï"},read.command());
+        read = Frame.read(in);
+        assertEquals(Frame.Opcode.DONE,read.opcode);
+        assertEquals(0,read.args.length);
+        assertNull(Frame.read(in));             //end of stream
+    }
+
+    @Test
+    void textCommandsMapToOpcodes(){
+        assertEquals(Frame.Opcode.SYNC_MKDIR,Frame.Opcode.of("sync_mkdir"));
+        assertNull(Frame.Opcode.of("bogus"));
+        assertThrows(IllegalArgumentException.class,() -> Frame.of(1,"bogus","a"));
+        assertArrayEquals(new String[]{"cp","-r","a","b"},Frame.of(1,"cp","-r","a","b").command());
+    }
+
+    @Test
+    void lengthOutsideTheLimitsIsRejected(){
+        assertThrows(IOException.class,() -> Frame.read(stream(length(6,6))));
+        assertThrows(IOException.class,() -> Frame.read(stream(length(Frame.MAX_LENGTH+1,0))));
+        assertThrows(IOException.class,() -> Frame.read(stream(length(-1,0))));
+        assertThrows(IOException.class,() -> Frame.read(stream(length(20,3))));    //cut off
+    }
+
+    @Test
+    void malformedBodiesAreIOExceptions(){
+        byte[] frame = Frame.of(1,"rm","abc").encode();
+        ByteBuffer body = ByteBuffer.wrap(frame,4,frame.length-4).slice();
+        body.put(0,(byte)Frame.Opcode.values().length);     //unknown opcode
+        IOException unknown = assertThrows(IOException.class,() -> Frame.decode(body.duplicate()));
+        assertTrue(unknown.getMessage().startsWith("Unknown opcode"));
+        body.put(0,(byte)0).putInt(7,1000);                 //argument longer than the frame
+        assertThrows(IOException.class,() -> Frame.decode(body.duplicate()));
+        body.putInt(7,3).putShort(5,(short)-1);             //negative argument count
+        assertThrows(IOException.class,() -> Frame.decode(body.duplicate()));
+        body.putShort(5,(short)2);                          //an argument more than there is
+        assertThrows(IOException.class,() -> Frame.decode(body.duplicate()));
+    }
+
+    @Test
+    void readLineStopsAtTheNewline() throws IOException{
+        InputStream in = new ByteArrayInputStream("user\r\nbinary\n\npartial".getBytes(StandardCharsets.UTF_8));
+        assertEquals("user",Frame.readLine(in));
+        assertEquals("binary",Frame.readLine(in));
+        assertEquals("",Frame.readLine(in));
+        assertEquals("partial",Frame.readLine(in));
+        assertNull(Frame.readLine(in));
+    }
+}
@@ -0,0 +1,66 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class HashRingTest {
+    final static int USERS = 10000;
+
+    static Map<String,String> owners(HashRing ring){
+        Map<String,String> owners = new HashMap<String,String>();
+        for(int i=0; i<USERS; i++)
+            owners.put("user"+i,ring.owner("user"+i));
+        return owners;
+    }
+    static HashRing ring(String... nodes){
+        HashRing ring = new HashRing();
+        for(String node : nodes)
+            ring.add(node);
+        return ring;
+    }
+
+    @Test
+    void emptyRingHasNoOwner(){
+        assertNull(new HashRing().owner("user"));
+    }
+
+    @Test
+    void joiningNodeOnlyTakesUsers(){
+        Map<String,String> before = owners(ring("n1","n2","n3"));
+        Map<String,String> after = owners(ring("n1","n2","n3","n4"));
+        int moved = 0;
+        for(String user : before.keySet()){
+            if(before.get(user).equals(after.get(user)))
+                continue;
+            assertEquals("n4",after.get(user));    //nobody moves between the old nodes
+            moved++;
+        }
+        assertTrue(moved>USERS/4*0.8 && moved<USERS/4*1.2,"moved : "+moved);
+    }
+
+    @Test
+    void leavingNodeOnlyGivesItsUsers(){
+        HashRing ring = ring("n1","n2","n3","n4");
+        Map<String,String> before = owners(ring);
+        ring.remove("n2");
+        Map<String,String> after = owners(ring);
+        for(String user : before.keySet()){
+            if(before.get(user).equals("n2"))
+                assertNotEquals("n2",after.get(user));
+            else
+                assertEquals(before.get(user),after.get(user));
+        }
+        assertEquals(Set.of("n1","n3","n4"),ring.nodes());
+    }
+
+    @Test
+    void ownershipDoesntDependOnJoinOrder(){
+        assertEquals(owners(ring("n1","n2","n3")),owners(ring("n3","n1","n2")));
+    }
+}
@@ -0,0 +1,145 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalTest {
+    @TempDir
+    Path root;
+    JournalStore store;
+
+    @BeforeEach
+    void open() throws IOException{
+        store = new JournalStore(root.resolve("ServerDir"));
+    }
+    @AfterEach
+    void close(){
+        store.close();
+    }
+
+    static Log log(long sequence,String command){
+        Log log = new Log(command);
+        log.sequence = sequence;
+        log.timestamp = new Timestamp(sequence*1000);
+        return log;
+    }
+    static List<Long> sequences(List<Log> logs){
+        List<Long> sequences = new ArrayList<Long>();
+        for(Log log : logs)
+            sequences.add(log.sequence);
+        return sequences;
+    }
+    Path lastSegment(Journal journal){
+        return journal.segments.lastEntry().getValue();
+    }
+    Journal written(int logs) throws IOException{   //journal of u with logs 1..logs, closed
+        Journal journal = store.open("u");
+        for(int i=1; i<=logs; i++)
+            journal.append(log(i,"mkdir d"+i));
+        journal.close();
+        return journal;
+    }
+
+    @Test
+    void replaysAddsRemovesAndBatches() throws IOException{
+        Journal journal = store.open("u");
+        for(int i=1; i<=4; i++)
+            journal.append(log(i,"mkdir d"+i));
+        journal.batch(3,2,"mkdir d3 d4");
+        journal.remove(new long[]{2});
+        journal.close();
+        Journal reopened = store.open("u");
+        assertEquals(List.of(1L,3L,4L),sequences(reopened.recovered));
+        Log batch = reopened.recovered.get(1);
+        assertEquals("mkdir d3 d4",batch.batch);
+        assertEquals(2,batch.batchSize);
+        assertEquals("mkdir d1",reopened.recovered.get(0).command);
+        assertEquals(1000,reopened.recovered.get(0).timestamp.getTime());
+        assertFalse(reopened.skipped);
+        reopened.close();
+    }
+
+    @Test
+    void stopsAtTornRecordAndStillReadsLaterAppends() throws IOException{
+        Path segment = lastSegment(written(3));
+        try(RandomAccessFile file = new RandomAccessFile(segment.toFile(),"rw")){
+            file.setLength(file.length()-3);    //last record cut while crashing
+        }
+        Journal reopened = store.open("u");
+        assertEquals(List.of(1L,2L),sequences(reopened.recovered));
+        assertTrue(reopened.skipped);
+        reopened.append(log(4,"mkdir d4"));      //would be hidden behind the torn record without the compaction
+        reopened.close();
+        Journal again = store.open("u");
+        assertEquals(List.of(1L,2L,4L),sequences(again.recovered));
+        assertFalse(again.skipped);
+        again.close();
+    }
+
+    @Test
+    void stopsAtRecordFailingItsCrc() throws IOException{
+        Path segment = lastSegment(written(3));
+        byte[] bytes = Files.readAllBytes(segment);
+        bytes[bytes.length-1] ^= 1;             //last byte of the command of log 3
+        Files.write(segment,bytes);
+        Journal reopened = store.open("u");
+        assertEquals(List.of(1L,2L),sequences(reopened.recovered));
+        assertTrue(reopened.skipped);
+        reopened.close();
+    }
+
+    @Test
+    void segmentsBeforeTheCheckpointAreIgnored() throws IOException{
+        Journal journal = written(3);
+        Path old = lastSegment(journal);
+        Path saved = root.resolve("saved.seg");
+        Files.copy(old,saved);
+        Journal reopened = store.open("u");
+        reopened.compact(List.of(log(3,"mkdir d3")));  //logs 1 and 2 undone meanwhile
+        reopened.close();
+        assertFalse(Files.exists(old));
+        Files.move(saved,old,StandardCopyOption.REPLACE_EXISTING);    //as if the deletion after compacting didn't happen
+        Journal again = store.open("u");
+        assertEquals(List.of(3L),sequences(again.recovered));
+        assertTrue(again.skipped);
+        again.close();
+        assertFalse(Files.exists(old));
+    }
+
+    @Test
+    void compactsOnGrowthNotOnEveryAppend() throws IOException{
+        Journal journal = store.open("u");
+        List<Log> live = new ArrayList<Log>();
+        int compactions = 0;
+        for(int i=1; i<=200000; i++){           //about 12MB, all of it live
+            Log log = log(i,"mkdir some/longer/path/d"+i);
+            live.add(log);
+            journal.append(log);
+            if(journal.needsCompaction()){
+                journal.compact(live);
+                compactions++;
+                assertFalse(journal.needsCompaction());
+            }
+        }
+        assertTrue(compactions>0 && compactions<=3,"compactions : "+compactions);
+        assertTrue(journal.size>=journal.compacted);
+        journal.close();
+        Journal reopened = store.open("u");
+        assertEquals(200000,reopened.recovered.size());
+        assertFalse(reopened.skipped);
+        reopened.close();
+    }
+}
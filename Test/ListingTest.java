@@ -0,0 +1,111 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ListingTest {
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void entries() throws IOException{          //d0..d9, d9 the oldest
+        for(int i=0; i<10; i++){
+            Path entry = Files.createDirectory(dir.resolve("d"+i));
+            Files.setLastModifiedTime(entry,FileTime.fromMillis(100000-i*1000));
+        }
+        Files.createDirectory(dir.resolve("x"));
+    }
+    static Listing parse(String command){
+        return Listing.parse(Command.split(command));
+    }
+    List<String> list(String command,Boolean indexed,Boolean[] more) throws IOException{
+        List<String> names = new ArrayList<String>();
+        String[] index = null;
+        if(indexed){
+            try(var stream = Files.list(dir)){
+                index = stream.map(path -> path.getFileName().toString()).sorted().toArray(String[]::new);
+            }
+        }
+        more[0] = parse(command).list(dir,index,names::add);
+        return names;
+    }
+    List<String> list(String command) throws IOException{
+        return list(command,false,new Boolean[1]);
+    }
+
+    @Test
+    void parsesEveryOption(){
+        Listing listing = parse("ls \"a b\" --offset 2 --limit 3 --sort time --reverse --filter d*");
+        assertEquals("a b",listing.dir);
+        assertEquals(2,listing.offset);
+        assertEquals(3,listing.limit);
+        assertEquals("time",listing.sort);
+        assertTrue(listing.reverse);
+        assertEquals("d*",listing.filter);
+        assertTrue(listing.paged());
+        assertFalse(parse("ls").paged());
+    }
+
+    @Test
+    void rejectsBadOptions(){
+        for(String command : new String[]{"ls --offset","ls --limit x","ls --offset -1","ls --limit -2","ls --sort size",
+                                          "ls --bogus","ls a b","ls --filter [a"})
+            assertThrows(IllegalArgumentException.class,() -> parse(command),command);
+        IllegalArgumentException bad = assertThrows(IllegalArgumentException.class,() -> parse("ls --filter [a"));
+        assertTrue(bad.getMessage().startsWith("Invalid Format"),bad.getMessage());
+    }
+
+    @Test
+    void sortedPagesKeepTheirOrder() throws IOException{
+        assertEquals(List.of("d2","d3","d4"),list("ls --offset 2 --limit 3 --sort name --filter d*"));
+        assertEquals(List.of("d9","d8"),list("ls --limit 2 --sort time --filter d*"));
+        assertEquals(List.of("x","d9"),list("ls --limit 2 --sort name --reverse"));
+    }
+
+    @Test
+    void hugeLimitDoesntOverflow() throws IOException{
+        Boolean[] more = new Boolean[1];
+        List<String> names = list("ls --offset 1 --limit 2147483647 --sort name",false,more);
+        assertEquals(10,names.size());
+        assertEquals("d1",names.get(0));
+        assertFalse(more[0]);
+        assertEquals(Integer.MAX_VALUE,parse("ls --offset 1 --limit 2147483647").end());
+    }
+
+    @Test
+    void pagesOfTheIndexAndOfTheDiskAgree() throws IOException{
+        Boolean[] more = new Boolean[1];
+        assertEquals(List.of("d4","d5"),list("ls --offset 4 --limit 2 --sort name",true,more));
+        assertTrue(more[0]);
+        assertEquals(List.of("d4","d5"),list("ls --offset 4 --limit 2 --sort name",false,more));
+        assertTrue(more[0]);
+        assertEquals(List.of("x"),list("ls --offset 10 --limit 5 --sort name",true,more));
+        assertFalse(more[0]);
+    }
+
+    @Test
+    void unsortedPageStopsAtTheLimit() throws IOException{
+        Boolean[] more = new Boolean[1];
+        assertEquals(3,list("ls --limit 3",false,more).size());
+        assertTrue(more[0]);
+        assertEquals(0,list("ls --offset 20",false,more).size());
+        assertFalse(more[0]);
+    }
+
+    @Test
+    void nextPageContinuesTheListing(){
+        assertEquals("ls \"a b\" --offset 5 --limit 3 --sort name --filter d*",
+                     parse("ls \"a b\" --offset 2 --limit 3 --sort name --filter d*").next());
+    }
+}
@@ -0,0 +1,101 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class LogStoreTest {
+    LogStore logs;
+
+    @BeforeEach
+    void open(){
+        logs = new LogStore(new PathDictionary());
+    }
+    List<String> commands(){
+        List<String> commands = new ArrayList<String>();
+        for(Log log : logs)
+            commands.add(log.command);
+        return commands;
+    }
+
+    @Test
+    void logsAreReadBackAsTheyWereAdded(){
+        logs.add(1,1000,"mv \"my dir\" a/b",null);
+        logs.add(2,2000,"rm a/b","entry-1");
+        logs.add(3,3000,"ls",null);
+        Log log = logs.get(0);
+        assertEquals("mv \"my dir\" a/b",log.command);
+        assertArrayEquals(new String[]{"mv","my dir","a/b"},log.tokens);
+        assertEquals(1000,log.timestamp.getTime());
+        assertEquals(1,log.sequence);
+        assertNull(log.trashed);
+        assertEquals("entry-1",logs.get(1).trashed);
+        assertEquals("ls",logs.get(2).command);
+        assertEquals(-1,logs.path(2,1));
+        assertEquals(logs.path(0,2),logs.path(1,1));   //a/b is interned once
+    }
+
+    @Test
+    void onlyLoggedCommandsAreAccepted(){
+        assertThrows(IllegalArgumentException.class,() -> logs.add(1,0,"cd a",null));
+        assertEquals(0,logs.size());
+    }
+
+    @Test
+    void findAcrossChunks(){
+        int n = LogStore.CHUNK*2+10;
+        for(int i=0; i<n; i++)
+            logs.add(i*2,i,"mkdir d"+i,null);   //even sequences only
+        assertEquals(3,logs.chunks.size());
+        assertEquals(LogStore.CHUNK+1,logs.find((LogStore.CHUNK+1)*2));
+        assertEquals(-1,logs.find(3));
+        assertEquals(-1,logs.find(n*2));
+        assertEquals("mkdir d"+(n-1),logs.command(n-1));
+    }
+
+    @Test
+    void removeAllKeepsTheOrderAndDropsEmptyChunks(){
+        int n = LogStore.CHUNK+5;
+        for(int i=0; i<n; i++)
+            logs.add(i,i,"mkdir d"+i,null);
+        long[] removed = new long[n-3];
+        for(int i=0; i<removed.length; i++)
+            removed[i] = i+1;                   //all but the first and the last two
+        logs.removeAll(removed);
+        assertEquals(List.of("mkdir d0","mkdir d"+(n-2),"mkdir d"+(n-1)),commands());
+        assertEquals(1,logs.chunks.size());
+        assertEquals(2,logs.find(n-1));
+        logs.removeAll(new long[]{0,n-2,n-1});
+        assertEquals(0,logs.size());
+        assertEquals(0,logs.chunks.size());
+    }
+
+    @Test
+    void batchIsPrintedOnceAndRemovedAsAWhole() throws IOException{
+        logs.add(1,0,"mkdir a",null);
+        logs.add(2,0,"mkdir b",null);
+        logs.add(3,0,"mkdir c",null);
+        logs.add(4,0,"mkdir d",null);
+        logs.batch(2,2,"mkdir b c");
+        assertArrayEquals(new long[]{2,3},logs.batchOf(3));
+        assertNull(logs.batchOf(4));
+        assertFalse(logs.hidden(1));
+        assertTrue(logs.hidden(2));
+        StringBuilder printed = new StringBuilder();
+        logs.print(1,printed);
+        assertTrue(printed.toString().endsWith("]: mkdir b c (2 operations)"),printed.toString());
+        assertEquals("mkdir b c",logs.get(1).batch);
+        assertEquals(2,logs.get(1).batchSize);
+        logs.removeAll(new long[]{2,3});
+        assertNull(logs.batchOf(2));
+        assertEquals(List.of("mkdir a","mkdir d"),commands());
+    }
+}
@@ -0,0 +1,58 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MerkleTreeTest {
+    @TempDir
+    Path root;
+
+    MerkleTree scanned(String... dirs) throws IOException{
+        for(String dir : dirs)
+            Files.createDirectories(root.resolve("d").resolve(dir));
+        return MerkleTree.scan(root.resolve("d").toFile());
+    }
+    static MerkleTree of(String... paths){      //as the server builds it from SyncState.entries
+        return MerkleTree.of("d",new TreeSet<String>(List.of(paths)));
+    }
+
+    @Test
+    void scanAndEntriesGiveTheSameHash() throws IOException{
+        MerkleTree disk = scanned("a/x","a b","c");
+        MerkleTree entries = of("a","a/x","a b","c");
+        assertEquals(disk.hex(),entries.hex());
+        assertEquals(disk.find("a").hex(),entries.find("a").hex());
+    }
+
+    @Test
+    void onlyTheChangedBranchDiffers(){
+        MerkleTree before = of("a","a/x","b","b/y");
+        MerkleTree after = of("a","a/x","b","b/z");
+        assertNotEquals(before.hex(),after.hex());
+        assertEquals(before.find("a").hex(),after.find("a").hex());
+        assertNotEquals(before.find("b").hex(),after.find("b").hex());
+        assertEquals(List.of("a",before.find("a").hex(),"b",after.find("b").hex()),after.childHashes());
+    }
+
+    @Test
+    void namesCantRunIntoEachOther(){
+        assertNotEquals(of("ab").hex(),of("a","a/b").hex());
+        assertNotEquals(of("a","b").hex(),of("a","a/b").hex());
+    }
+
+    @Test
+    void findWalksDownByName(){
+        MerkleTree tree = of("a","a/x","a/x/y");
+        assertEquals("y",tree.find("a/x/y").name);
+        assertEquals(tree,tree.find(""));
+        assertNull(tree.find("a/z"));
+    }
+}
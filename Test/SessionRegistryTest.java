@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class SessionRegistryTest {
+    @Test
+    void lettersAreBijectiveBase26(){
+        assertEquals("A",SessionRegistry.diskLetter(0));
+        assertEquals("Z",SessionRegistry.diskLetter(25));
+        assertEquals("AA",SessionRegistry.diskLetter(26));
+        assertEquals("AZ",SessionRegistry.diskLetter(51));
+        assertEquals("BA",SessionRegistry.diskLetter(52));
+        assertEquals("ZZ",SessionRegistry.diskLetter(701));
+        assertEquals("AAA",SessionRegistry.diskLetter(702));
+    }
+
+    @Test
+    void releasedIdsAreReusedFirst(){
+        SessionRegistry sessions = new SessionRegistry();
+        assertEquals(0,sessions.register("a"));
+        assertEquals(1,sessions.register("b"));
+        assertEquals(2,sessions.register("c"));
+        sessions.unregister("b",1);
+        assertEquals(1,sessions.register("d"));
+        assertEquals(3,sessions.register("e"));
+        assertEquals(List.of("a","c","d","e"),sessions.connected());
+    }
+
+    @Test
+    void takenUsernameIsRefusedAndItsIdNotLost(){
+        SessionRegistry sessions = new SessionRegistry();
+        assertEquals(0,sessions.register("a"));
+        assertNull(sessions.register("a"));
+        assertEquals(1,sessions.register("b"));
+        assertEquals(List.of("a","b"),sessions.connected());
+    }
+
+    @Test
+    void staleSessionDoesntUnregisterTheNewOne(){
+        SessionRegistry sessions = new SessionRegistry();
+        assertEquals(0,sessions.register("a"));
+        sessions.unregister("a",0);
+        assertEquals(0,sessions.register("a"));
+        sessions.unregister("a",5);             //not the session which holds a
+        assertEquals(List.of("a"),sessions.connected());
+        assertNull(sessions.register("a"));
+    }
+
+    @Test
+    void oneOfConcurrentLoginsWins() throws InterruptedException{
+        SessionRegistry sessions = new SessionRegistry();
+        AtomicInteger won = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] logins = new Thread[20];
+        for(int i=0; i<logins.length; i++){
+            logins[i] = new Thread(() -> {
+                try{
+                    start.await();
+                }
+                catch(InterruptedException e){
+                    return;
+                }
+                if(sessions.register("same")!=null)
+                    won.incrementAndGet();
+            });
+            logins[i].start();
+        }
+        start.countDown();
+        for(Thread login : logins)
+            login.join();
+        assertEquals(1,won.get());
+        assertEquals(List.of("same"),sessions.connected());
+    }
+}
@@ -0,0 +1,80 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SyncStateTest {
+    @TempDir
+    Path root;
+
+    SyncState state(String... dirs) throws IOException{    //synced directory d with dirs in it
+        for(String dir : dirs)
+            Files.createDirectories(root.resolve("d").resolve(dir));
+        return new SyncState(root.resolve("d").toFile());
+    }
+    static List<String> lines(List<String[]> updates){
+        List<String> lines = new ArrayList<String>();
+        for(String[] update : updates)
+            lines.add(String.join(" ",update));
+        return lines;
+    }
+
+    @Test
+    void removedSubtreeIsOneRemoval() throws IOException{
+        SyncState state = state("a/x/y","a b","c");
+        TreeDeleter.delete(root.resolve("d/a"));
+        TreeDeleter.delete(root.resolve("d/a b"));  //sorts between a and a/x
+        assertEquals(List.of("sync_rm d/a","sync_rm d/a b","sync_version d 1"),lines(state.delta()));
+        assertEquals(List.of("c"),new ArrayList<String>(state.entries.keySet()));
+    }
+
+    @Test
+    void renameIsOneMove() throws IOException{
+        SyncState state = state("a/x/y");
+        Files.move(root.resolve("d/a"),root.resolve("d/b"));
+        assertEquals(List.of("sync_mv d/a d/b","sync_version d 1"),lines(state.delta()));
+        assertEquals(List.of("b","b/x","b/x/y"),new ArrayList<String>(state.entries.keySet()));
+    }
+
+    @Test
+    void createdParentsBeforeChildren() throws IOException{
+        SyncState state = state("a");
+        Files.createDirectories(root.resolve("d/a/x/y"));
+        Files.createDirectories(root.resolve("d/b"));
+        assertEquals(List.of("sync_mkdir d/a/x","sync_mkdir d/a/x/y","sync_mkdir d/b","sync_version d 1"),lines(state.delta()));
+    }
+
+    @Test
+    void scopedDeltaOnlyComparesTheScope() throws IOException{
+        SyncState state = state("a","b");
+        Files.createDirectories(root.resolve("d/a/x"));
+        TreeDeleter.delete(root.resolve("d/b"));     //not reported in scope a
+        assertEquals(List.of("sync_mkdir d/a/x","sync_version d 1"),lines(state.delta("a")));
+        assertEquals(List.of("sync_rm d/b","sync_version d 2"),lines(state.delta("")));
+    }
+
+    @Test
+    void filesAreAnnouncedAndRemoved() throws IOException{
+        SyncState state = state("a");
+        File file = root.resolve("d/a/f.txt").toFile();
+        Files.write(file.toPath(),new byte[]{1,2,3});
+        file.setLastModified(1000);
+        assertEquals(List.of("sync_file d/a/f.txt 3 1000","sync_version d 1"),lines(state.delta()));
+        Files.delete(file.toPath());
+        assertEquals(List.of("sync_rmfile d/a/f.txt","sync_version d 2"),lines(state.delta()));
+    }
+
+    @Test
+    void noChangeNoVersion() throws IOException{
+        SyncState state = state("a/b");
+        assertEquals(List.of(),lines(state.delta()));
+        assertEquals(0,state.version);
+    }
+}
@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UndoPlanTest {
+    @TempDir
+    Path root;
+    DirectoryManager directoryManager;
+    Path home;
+
+    @BeforeEach
+    void open() throws IOException{
+        directoryManager = new DirectoryManager(root.resolve("ServerDir").toString(),"u");
+        home = directoryManager.home.toPath();
+        Files.createDirectories(home.resolve("a/x"));
+        Files.createDirectories(home.resolve("b"));
+    }
+    List<String> tree() throws IOException{     //every directory below home
+        try(Stream<Path> paths = Files.walk(home)){
+            return paths.filter(path -> !path.equals(home)).map(path -> SyncState.key(home,path)).sorted().collect(Collectors.toList());
+        }
+    }
+    static List<String> steps(UndoPlan plan){
+        List<String> steps = new ArrayList<String>();
+        for(UndoPlan.Step step : plan.steps)
+            steps.add(step.toString());
+        return steps;
+    }
+
+    @Test
+    void appliesEveryStep() throws IOException{
+        UndoPlan plan = new UndoPlan(directoryManager,new long[0]);
+        plan.add("mkdir","c/d",null);
+        plan.add("mv","a","e");
+        plan.add("rm","b",null);
+        plan.apply(progress -> {});
+        assertEquals(List.of("c","c/d","e","e/x"),tree());
+    }
+
+    @Test
+    void failureRollsBackTheAppliedSteps() throws IOException{
+        List<String> before = tree();
+        UndoPlan plan = new UndoPlan(directoryManager,new long[0]);
+        plan.add("mkdir","c/d",null);
+        plan.add("mv","a","e");
+        plan.add("rm","b",null);
+        plan.add("rn","missing","f");               //fails, the three before are reversed
+        IOException failure = assertThrows(IOException.class,() -> plan.apply(progress -> {}));
+        assertTrue(failure.getMessage().contains("3 operations rolled back"),failure.getMessage());
+        assertEquals(before,tree());
+    }
+
+    @Test
+    void removedDirectoryIsOnlyDeletedOnceThePlanSucceeded() throws IOException{
+        Files.createDirectories(home.resolve("b/kept"));
+        UndoPlan plan = new UndoPlan(directoryManager,new long[0]);
+        plan.add("rm","b",null);
+        plan.add("mkdir","a/x",null);               //exists already, fails
+        assertThrows(IOException.class,() -> plan.apply(progress -> {}));
+        assertTrue(Files.isDirectory(home.resolve("b/kept")));  //put back with its contents
+    }
+
+    @Test
+    void mergeDropsStepsInsideALaterRemovedDirectory(){
+        UndoPlan plan = new UndoPlan(directoryManager,new long[0]);
+        plan.add("mkdir","a/y",null);               //mkdir is always kept, it may create a too
+        plan.add("rn","./a/x/","a/z");              //pointless, a goes afterwards
+        plan.add("mv","b","c");
+        plan.add("rm","a",null);
+        plan.merge();
+        assertEquals(List.of("mkdir a/y","mv b c","rm a"),steps(plan));
+        assertEquals(1,plan.merged);
+    }
+
+    @Test
+    void mergeKeepsStepsLeavingTheRemovedDirectory(){
+        UndoPlan plan = new UndoPlan(directoryManager,new long[0]);
+        plan.add("mv","a/x","b/x");                 //takes x out of a before it goes
+        plan.add("rm","a",null);
+        plan.merge();
+        assertEquals(List.of("mv a/x b/x","rm a"),steps(plan));
+        assertEquals(0,plan.merged);
+    }
+}
@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Per command protocol work : tokenizing a text line (Command.split) and back (Command.join), and the binary
+ * form of the same tokens, Frame.of(..).encode() and Frame.decode() of the frame without its length.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+    @Param({"simple","quoted"})
+    String line;
+
+    String text;
+    String[] tokens;
+    byte[] frame;
+    MethodHandle split, join, of, encode, decode;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable{
+        text = line.equals("simple") ? "mv projects/src/main old/projects/src/main"
+                                     : "mv \"my projects/src main\" \"old \\\"projects\\\"/src main\"";
+        split = Sources.method("Command","split",String.class);
+        join = Sources.method("Command","join",String[].class);
+        of = Sources.method("Frame","of",int.class,String[].class);
+        encode = Sources.method("Frame","encode");
+        decode = Sources.method("Frame","decode",ByteBuffer.class);
+        tokens = (String[])split.invoke(text);
+        frame = (byte[])encode.invoke(of.invoke(7,tokens));
+    }
+
+    @Benchmark
+    public Object split() throws Throwable{
+        return split.invoke(text);
+    }
+    @Benchmark
+    public Object join() throws Throwable{
+        return join.invoke(tokens);
+    }
+    @Benchmark
+    public Object encode() throws Throwable{
+        return encode.invoke(of.invoke(7,tokens));
+    }
+    @Benchmark
+    public Object decode() throws Throwable{
+        return decode.invoke(ByteBuffer.wrap(frame,4,frame.length-4));
+    }
+}
@@ -0,0 +1,123 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * DirectoryManager on a temporary home, without the NamespaceIndex so every call reaches the filesystem.
+ *   deep : a chain of DEPTH directories, each with SIBLINGS others next to it, commands work at its bottom
+ *   wide : WIDTH directories in home, commands work in home
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectoryManagerBenchmark {
+    final static int DEPTH = 64, SIBLINGS = 8, WIDTH = 4096;
+
+    @Param({"deep","wide"})
+    String shape;
+
+    Path root;
+    Object manager;
+    File home;
+    String bottom;          //"" for wide, "d0/d1/../d63/" for deep
+    File listed;            //directory list() reads
+    long created;
+    MethodHandle create, delete, change, list, setPWD;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable{
+        root = Files.createTempDirectory("ddm-bench");
+        manager = Sources.constructor("DirectoryManager",String.class,String.class).invoke(root.toString(),"bench");
+        home = root.resolve("bench").toFile();
+        StringBuilder path = new StringBuilder();
+        if(shape.equals("deep")){
+            for(int depth=0; depth<DEPTH; depth++){
+                for(int sibling=0; sibling<SIBLINGS; sibling++)
+                    Files.createDirectories(home.toPath().resolve(path+"s"+sibling));
+                path.append("d").append(depth).append('/');
+                Files.createDirectories(home.toPath().resolve(path.toString()));
+            }
+            listed = home.toPath().resolve(path.toString()).getParent().toFile();
+        }
+        else{
+            for(int i=0; i<WIDTH; i++)
+                Files.createDirectory(home.toPath().resolve("w"+i));
+            listed = home;
+        }
+        bottom = path.toString();
+        create = Sources.method("DirectoryManager","createDirectory",String.class);
+        delete = Sources.method("DirectoryManager","deleteDirectory",String.class);
+        change = Sources.method("DirectoryManager","changeDirectory",String.class);
+        list = Sources.method("DirectoryManager","listContents",File.class);
+        setPWD = Sources.setter("DirectoryManager","PWD");
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception{
+        Sources.delete(root);
+    }
+
+    @State(Scope.Thread)
+    public static class Doomed {    //a new directory for each delete, made outside of the measurement
+        Object manager;             //of the tree it was made in, JMH injects another instance than the benchmark's
+        String path;
+
+        @Setup(Level.Invocation)
+        public void make(DirectoryManagerBenchmark tree) throws Throwable{
+            path = tree.bottom+"x"+(tree.created++);
+            tree.create.invoke(tree.manager,path);
+            manager = tree.manager;
+        }
+    }
+
+    @Benchmark
+    public Object create() throws Throwable{    //mkdir of a new directory, removed after the iteration
+        String path = bottom+"n"+(created++);
+        create.invoke(manager,path);
+        return path;
+    }
+    @TearDown(Level.Iteration)
+    public void removeCreated() throws Exception{
+        try(Stream<Path> children = Files.list(home.toPath().resolve(bottom))){
+            for(Path child : (Iterable<Path>)children::iterator){
+                String name = child.getFileName().toString();
+                if(name.startsWith("n"))    //not x, a Doomed one may be waiting for the next delete
+                    Sources.delete(child);
+            }
+        }
+    }
+    @Benchmark
+    public Object delete(Doomed doomed) throws Throwable{
+        return delete.invoke(doomed.manager,doomed.path);
+    }
+    @Benchmark
+    public Object change() throws Throwable{    //cd to the bottom (or one directory of home when wide), then back home
+        change.invoke(manager,shape.equals("deep") ? bottom : "w"+(created++ % WIDTH));
+        setPWD.invoke(manager,home);
+        return manager;
+    }
+    @Benchmark
+    public Object list() throws Throwable{      //ls of the bottom's parent (SIBLINGS+1 entries) or of home (WIDTH entries)
+        return list.invoke(manager,listed);
+    }
+}
@@ -0,0 +1,124 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Undo bookkeeping on large logs : the pairwise Log.isDependentOn check, a scan of every later log with it
+ * (what finding the logs to undo cost before DependencyIndex), DependencyIndex.cascade, and Logger.delete of
+ * every 100th log. The logs are a fixed random mix of mkdir, rm, mv, rn and ls on PATHS paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogBenchmark {
+    final static int PATHS = 512;
+    final static String[] OPS = {"mkdir","mkdir","rm","mv","rn","ls"};
+
+    @Param({"1000","100000"})
+    int size;
+
+    String[] commands;
+    Object[] logs;          //Log of each command, sequence = index+1
+    Object logger;          //holding the same commands
+    Object dependencies;    //its DependencyIndex
+    int next;
+    MethodHandle isDependentOn, cascade, delete;
+
+    static String[] commands(int size){
+        Random random = new Random(42);
+        String[] commands = new String[size];
+        for(int i=0; i<size; i++){
+            String op = OPS[random.nextInt(OPS.length)];
+            String first = path(random), second = path(random);
+            commands[i] = op.equals("mv") || op.equals("rn") ? op+" "+first+" "+second : op+" "+first;
+        }
+        return commands;
+    }
+    static String path(Random random){      //d<n>/e<m>, a few levels so "below" rules match
+        int n = random.nextInt(PATHS);
+        return n%3==0 ? "d"+n%64 : "d"+n%64+"/e"+n%8+(n%2==0 ? "/f"+n%4 : "");
+    }
+    static Object logger(String[] commands) throws Throwable{
+        Object events = Sources.constructor("ServerEvents").invoke();
+        Object logger = Sources.constructor("Logger",String.class,Sources.type("ServerEvents")).invoke("bench",events);
+        MethodHandle add = Sources.method("Logger","add",String.class);
+        for(String command : commands)
+            add.invoke(logger,command);
+        return logger;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable{
+        commands = commands(size);
+        MethodHandle newLog = Sources.constructor("Log",String.class);
+        MethodHandle setSequence = Sources.setter("Log","sequence");
+        logs = new Object[size];
+        for(int i=0; i<size; i++){
+            logs[i] = newLog.invoke(commands[i]);
+            setSequence.invoke(logs[i],(long)i+1);
+        }
+        logger = logger(commands);
+        dependencies = Sources.get(logger,"dependencies");
+        isDependentOn = Sources.method("Log","isDependentOn",Sources.type("Log"));
+        cascade = Sources.method("DependencyIndex","cascade",int.class);
+        delete = Sources.method("Logger","delete",long[].class);
+    }
+
+    @Benchmark
+    public boolean isDependentOn() throws Throwable{   //one pair, a later log against an earlier one
+        int b = next++ % (size-1);
+        return (boolean)isDependentOn.invoke(logs[b+1+(b*7919)%(size-b-1)],logs[b]);
+    }
+    @Benchmark
+    public int dependentsByScan() throws Throwable{    //every later log checked against one in the first half
+        int b = next++ % (size/2), found = 0;
+        for(int a=b+1; a<size; a++){
+            if((boolean)isDependentOn.invoke(logs[a],logs[b]))
+                found++;
+        }
+        return found;
+    }
+    @Benchmark
+    public Object cascade() throws Throwable{          //what undo uses, the same log then its dependents
+        return cascade.invoke(dependencies,next++ % (size/2));
+    }
+
+    @State(Scope.Thread)
+    public static class Full {      //a new Logger for each delete, made outside of the measurement
+        Object logger;
+        long[] removed;
+
+        @Setup(Level.Invocation)
+        public void make(LogBenchmark benchmark) throws Throwable{
+            logger = logger(benchmark.commands);
+            removed = new long[benchmark.size/100];
+            for(int i=0; i<removed.length; i++)
+                removed[i] = (long)i*100+1;
+        }
+    }
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public Object delete(Full full) throws Throwable{  //1% of the logs, spread over all of them
+        delete.invoke(full.logger,full.removed);
+        return full.logger;
+    }
+}
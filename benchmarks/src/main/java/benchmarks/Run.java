@@ -0,0 +1,38 @@
+package benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Main class of benchmarks.jar : the JMH command line, but results are also written as JSON to
+ * jmh-result.json unless -rf/-rff say otherwise, so a build can compare them with the last ones.
+ *   java -jar benchmarks/target/benchmarks.jar [jmh options] [benchmark regexp]
+ */
+public class Run {
+    public static void main(String[] args) throws Exception{
+        CommandLineOptions options;
+        try{
+            options = new CommandLineOptions(args);
+        }
+        catch(CommandLineOptionException e){
+            System.err.println(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if(options.shouldHelp() || options.shouldList() || options.shouldListWithParams() || options.shouldListProfilers()
+                || options.shouldListResultFormats()){
+            org.openjdk.jmh.Main.main(args);    //only prints
+            return;
+        }
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(options);
+        if(!options.getResultFormat().hasValue())
+            builder.resultFormat(ResultFormatType.JSON);
+        if(!options.getResult().hasValue())
+            builder.result("jmh-result.json");
+        new Runner(builder.build()).run();
+    }
+}
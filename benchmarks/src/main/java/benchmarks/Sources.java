@@ -0,0 +1,80 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/*
+ * The server classes are in the default package, which a named package (as JMH needs for its generated code)
+ * can't import. Benchmarks reach them through method handles looked up once in their setup, package-private
+ * members included, so the measured calls don't go through reflection.
+ */
+final class Sources {
+    private Sources(){
+    }
+
+    static Class<?> type(String name){
+        try{
+            return Class.forName(name);
+        }
+        catch(ClassNotFoundException e){
+            throw new IllegalStateException(name+" is not on the classpath",e);
+        }
+    }
+    static MethodHandle method(String type,String name,Class<?>... parameters){
+        try{
+            Method method = type(type).getDeclaredMethod(name,parameters);
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method);
+        }
+        catch(ReflectiveOperationException e){
+            throw new IllegalStateException(type+"."+name,e);
+        }
+    }
+    static MethodHandle constructor(String type,Class<?>... parameters){
+        try{
+            Constructor<?> constructor = type(type).getDeclaredConstructor(parameters);
+            constructor.setAccessible(true);
+            return MethodHandles.lookup().unreflectConstructor(constructor);
+        }
+        catch(ReflectiveOperationException e){
+            throw new IllegalStateException("new "+type,e);
+        }
+    }
+    static MethodHandle setter(String type,String name){
+        try{
+            Field field = type(type).getDeclaredField(name);
+            field.setAccessible(true);
+            return MethodHandles.lookup().unreflectSetter(field);
+        }
+        catch(ReflectiveOperationException e){
+            throw new IllegalStateException(type+"."+name,e);
+        }
+    }
+    static Object get(Object target,String name){  //field of target, declared by its class
+        try{
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(target);
+        }
+        catch(ReflectiveOperationException e){
+            throw new IllegalStateException(target.getClass().getName()+"."+name,e);
+        }
+    }
+
+    static void delete(Path dir) throws IOException{   //temporary trees of the benchmarks, children first
+        if(!Files.exists(dir))
+            return;
+        try(Stream<Path> paths = Files.walk(dir)){
+            for(Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package benchmarks;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Serialization of a synced tree for a new subscriber, SyncTopic.tree() (it replaced ServerThread.sendDirectory),
+ * in each encoding of ServerThread.treeEncoding() : TL sync_mkdir/sync_cd lines, TP and TZ one sync_snapshot line
+ * plain or deflated, FL binary frames. The topic caches the encoded tree per version, the cache is cleared before
+ * each call so the whole tree is walked and encoded every time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeEncodingBenchmark {
+    final static int FANOUT = 20;
+
+    @Param({"TL","TP","TZ","FL"})
+    String encoding;
+
+    @Param({"420","8420"})      //directories, FANOUT+FANOUT^2 or up to the 3rd level
+    int directories;
+
+    Path root;
+    Object topic;
+    Map<?,?> trees;             //its cache of encoded trees
+    MethodHandle tree;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable{
+        root = Files.createTempDirectory("ddm-bench");
+        Path dir = root.resolve("synced");
+        int made = 0;
+        for(int i=0; i<FANOUT && made<directories; i++){
+            for(int j=0; j<FANOUT && made<directories; j++){
+                Files.createDirectories(dir.resolve("a"+i).resolve("b"+j));
+                made += j==0 ? 2 : 1;
+                for(int k=0; directories>FANOUT*(FANOUT+1) && k<FANOUT && made<directories; k++){
+                    Files.createDirectory(dir.resolve("a"+i).resolve("b"+j).resolve("c"+k));
+                    made++;
+                }
+            }
+        }
+        topic = Sources.constructor("SyncTopic",File.class).invoke(dir.toFile());
+        trees = (Map<?,?>)Sources.get(topic,"trees");
+        tree = Sources.method("SyncTopic","tree",String.class);
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception{
+        Sources.delete(root);
+    }
+
+    @Benchmark
+    public Object tree() throws Throwable{
+        trees.clear();
+        return tree.invoke(topic,encoding);
+    }
+}